@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Dispatch of the decoded messages of a whole campaign to a RunNotifier with a listener which does nothing, as done
+// by the runner for each message read from attester. The runner receives the tasks list before the measurement.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+    private static final int FAILURE_RATE = 20;
+
+    @Param({ "10000", "100000" })
+    public int tasks;
+
+    private TaskNode[] tasksTree;
+    private Message[] messages;
+    private Attester attester;
+
+    @Setup
+    public void createMessages() {
+        byte[] events = EventStreams.createCampaignEvents(JsonInputStream.ENCODING_JSON, tasks, FAILURE_RATE, 15);
+        messages = EventStreams.decodeAll(events, JsonInputStream.ENCODING_JSON,
+                EventStreams.countEvents(tasks, FAILURE_RATE));
+        tasksTree = EventStreams.createTaskTree(tasks, false);
+    }
+
+    @Setup(Level.Invocation)
+    public void createRunner() {
+        attester = new Attester("benchmark", "attester.yml");
+        Message tasksList = new Message();
+        tasksList.event = "tasksList";
+        tasksList.tasks = tasksTree;
+        attester.processMessage(tasksList);
+        RunNotifier notifier = new RunNotifier();
+        notifier.addListener(new RunListener());
+        attester.setRunNotifier(notifier);
+    }
+
+    @Benchmark
+    public Attester dispatchCampaign() {
+        for (Message message : messages) {
+            attester.processMessage(message);
+        }
+        return attester;
+    }
+}
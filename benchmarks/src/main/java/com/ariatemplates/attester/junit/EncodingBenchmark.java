@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Compares the JSON and Smile encodings of attester messages: the score is in events per second, and the
+// bytesPerEvent counter gives the size of the encoded events.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingBenchmark {
+    private static final int TASKS = 10000;
+    private static final int FAILURE_RATE = 20;
+    private static final int EVENTS = 20500;
+
+    @Param({ JsonInputStream.ENCODING_JSON, JsonInputStream.ENCODING_SMILE })
+    public String encoding;
+
+    private byte[] events;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long bytesPerEvent;
+    }
+
+    @Setup(Level.Trial)
+    public void createEvents() {
+        if (EventStreams.countEvents(TASKS, FAILURE_RATE) != EVENTS) {
+            throw new IllegalStateException();
+        }
+        events = EventStreams.createCampaignEvents(encoding, TASKS, FAILURE_RATE, 15);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void decode(Size size, Blackhole blackhole) {
+        JsonInputStream inputStream = new JsonInputStream(new ByteArrayInputStream(events), encoding);
+        Message message;
+        while ((message = inputStream.readMessage()) != null) {
+            blackhole.consume(message);
+        }
+        size.bytesPerEvent = events.length / EVENTS;
+    }
+}
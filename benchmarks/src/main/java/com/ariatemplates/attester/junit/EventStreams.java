@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// Synthetic attester event streams, kept in memory so that benchmarks do not depend on node or on the disk.
+public class EventStreams {
+    private EventStreams() {
+        // not intended to be used as an object
+    }
+
+    // Events of a campaign with the given number of tasks, one task out of failureRate failing with an error whose
+    // stack has stackDepth frames. Each task produces taskStarted, taskFinished and possibly error.
+    public static byte[] createCampaignEvents(String encoding, int tasks, int failureRate, int stackDepth) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonGenerator generator = createGenerator(encoding, out);
+            for (int i = 0; i < tasks; i++) {
+                writeTaskEvent(generator, "taskStarted", i);
+                if (failureRate > 0 && i % failureRate == 0) {
+                    writeError(generator, i, stackDepth);
+                }
+                writeTaskEvent(generator, "taskFinished", i);
+            }
+            generator.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Tree of tasks in groups of 100, as for test suites. With duplicateNames, all the tasks of a group have the same
+    // name, so that the runner has to make their names unique.
+    public static TaskNode[] createTaskTree(int tasks, boolean duplicateNames) {
+        int groupSize = 100;
+        TaskNode[] groups = new TaskNode[(tasks + groupSize - 1) / groupSize];
+        for (int i = 0; i < groups.length; i++) {
+            TaskNode group = new TaskNode();
+            group.name = "test.module" + i + ".Suite";
+            group.subTasks = new TaskNode[Math.min(groupSize, tasks - i * groupSize)];
+            for (int j = 0; j < group.subTasks.length; j++) {
+                TaskNode task = new TaskNode();
+                task.taskId = i * groupSize + j;
+                task.name = duplicateNames ? "test.module.SampleTest" : "test.module" + i + ".SampleTest" + j;
+                group.subTasks[j] = task;
+            }
+            groups[i] = group;
+        }
+        return groups;
+    }
+
+    public static Message[] decodeAll(byte[] events, String encoding, int count) {
+        JsonInputStream inputStream = new JsonInputStream(new ByteArrayInputStream(events), encoding);
+        Message[] res = new Message[count];
+        for (int i = 0; i < count; i++) {
+            res[i] = inputStream.readMessage();
+        }
+        return res;
+    }
+
+    public static int countEvents(int tasks, int failureRate) {
+        return 2 * tasks + (failureRate > 0 ? (tasks + failureRate - 1) / failureRate : 0);
+    }
+
+    private static JsonGenerator createGenerator(String encoding, ByteArrayOutputStream out) throws IOException {
+        if (JsonInputStream.ENCODING_SMILE.equals(encoding)) {
+            return new SmileFactory().createJsonGenerator(out);
+        }
+        return new JsonFactory().createJsonGenerator(out);
+    }
+
+    private static void writeTaskEvent(JsonGenerator generator, String event, int taskId) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("event", event);
+        generator.writeNumberField("taskId", taskId);
+        generator.writeNumberField("time", 1350000000000L + taskId);
+        generator.writeEndObject();
+    }
+
+    private static void writeError(JsonGenerator generator, int taskId, int stackDepth) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("event", "error");
+        generator.writeNumberField("taskId", taskId);
+        generator.writeObjectFieldStart("error");
+        generator.writeStringField("message", "Expected true but was false in test" + taskId);
+        generator.writeBooleanField("failure", true);
+        generator.writeArrayFieldStart("stack");
+        for (int i = 0; i < stackDepth; i++) {
+            generator.writeStartObject();
+            generator.writeStringField("className", "test.module.SampleTest" + (i % 7));
+            generator.writeStringField("function", "testMethod" + i);
+            generator.writeStringField("file", "http://localhost:7777/test/module/SampleTest" + (i % 7) + ".js");
+            generator.writeNumberField("line", 10 + i);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
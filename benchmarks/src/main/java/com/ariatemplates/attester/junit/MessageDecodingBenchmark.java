@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Decoding of a JSON event stream: as typed messages (readMessage, used by the runner) and as trees (read).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageDecodingBenchmark {
+    private static final int TASKS = 10000;
+    private static final int FAILURE_RATE = 20;
+    private static final int EVENTS = 20500;
+
+    private byte[] events;
+
+    @Setup
+    public void createEvents() {
+        events = EventStreams.createCampaignEvents(JsonInputStream.ENCODING_JSON, TASKS, FAILURE_RATE, 15);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void readMessage(Blackhole blackhole) {
+        JsonInputStream inputStream = new JsonInputStream(new ByteArrayInputStream(events));
+        Message message;
+        while ((message = inputStream.readMessage()) != null) {
+            blackhole.consume(message);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void readTree(Blackhole blackhole) {
+        JsonInputStream inputStream = new JsonInputStream(new ByteArrayInputStream(events));
+        for (int i = 0; i < EVENTS; i++) {
+            blackhole.consume(inputStream.read());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Conversion of the errors reported by attester into Java exceptions, alone and with a read of the stack trace, as
+// done by most JUnit listeners.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StackTraceBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int stackDepth;
+
+    private TestError error;
+
+    @Setup
+    public void createError() {
+        error = new TestError();
+        error.message = "Expected true but was false";
+        error.failure = true;
+        error.stack = new TestErrorStackElement[stackDepth];
+        for (int i = 0; i < stackDepth; i++) {
+            TestErrorStackElement element = new TestErrorStackElement();
+            element.className = "test.module.SampleTest" + (i % 7);
+            element.function = "testMethod" + i;
+            element.file = "http://localhost:7777/test/module/SampleTest" + (i % 7) + ".js";
+            element.line = 10 + i;
+            error.stack[i] = element;
+        }
+    }
+
+    @Benchmark
+    public Throwable create() {
+        return TestErrorJavaException.createFromTestFailure(error);
+    }
+
+    @Benchmark
+    public StackTraceElement[] createAndGetStackTrace() {
+        return TestErrorJavaException.createFromTestFailure(error).getStackTrace();
+    }
+}
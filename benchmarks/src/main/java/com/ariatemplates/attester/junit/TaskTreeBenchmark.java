@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Building of the JUnit description tree when the tasks list is received, including the creation of unique names.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaskTreeBenchmark {
+    @Param({ "10000", "100000" })
+    public int tasks;
+
+    // with duplicate names, the tasks of each group of 100 tasks have the same name
+    @Param({ "false", "true" })
+    public boolean duplicateNames;
+
+    private Message tasksList;
+
+    @Setup
+    public void createTasksList() {
+        tasksList = new Message();
+        tasksList.event = "tasksList";
+        tasksList.tasks = EventStreams.createTaskTree(tasks, duplicateNames);
+    }
+
+    @Benchmark
+    public Attester buildTree() {
+        Attester attester = new Attester("benchmark", "attester.yml");
+        attester.processMessage(tasksList);
+        return attester;
+    }
+}
@@ -15,113 +15,282 @@
 
 package com.ariatemplates.attester.junit;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.Filterable;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sortable;
+import org.junit.runner.manipulation.Sorter;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
-public class Attester extends Runner {
+public class Attester extends Runner implements Filterable, Sortable, Closeable {
     @Target(ElementType.TYPE)
     @Retention(RetentionPolicy.RUNTIME)
     public static @interface ConfigFile {
         String value();
     }
 
+    @Target(ElementType.TYPE)
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Browsers {
+        int value();
+    }
+
+    public static final String CAPTURE_OUTPUT_SYS_PROPERTY = "com.ariatemplates.attester.captureOutput";
+    public static final String CAPTURE_LINES_SYS_PROPERTY = "com.ariatemplates.attester.captureLines";
+    private static final int DEFAULT_CAPTURE_LINES = 50;
+    public static final String EAGER_START_SYS_PROPERTY = "com.ariatemplates.attester.eagerStart";
+    public static final String EAGER_START_NODE = "node";
+    public static final String EAGER_START_BROWSERS = "browsers";
+    public static final String TASK_TIMEOUT_SYS_PROPERTY = "com.ariatemplates.attester.taskTimeout";
+    public static final String CAMPAIGN_TIMEOUT_SYS_PROPERTY = "com.ariatemplates.attester.campaignTimeout";
+    public static final String INCLUDES_OPTION_SYS_PROPERTY = "com.ariatemplates.attester.includesOption";
+    public static final String LONGEST_FIRST_SYS_PROPERTY = "com.ariatemplates.attester.longestFirst";
+    // internal event, added to the messages of attester at regular intervals while a campaign runs
+    private static final String WATCHDOG_EVENT = "watchdog";
+    private static final long WATCHDOG_INTERVAL = 1000;
+    private static final String TASK_TIMEOUT = "Timeout: the task did not finish within %d seconds.";
+    private static final String CAMPAIGN_TIMEOUT = "Timeout: the campaign did not finish within %d seconds.";
+    private static final String UNEXPECTED_EVENT = "Warning: unexpected %s event for task %d.";
+    private static final String UNEXPECTED_TASKS = "Warning: attester runs %d tasks which were not requested with the %s option.";
+
     private Description rootTestDescription;
-    private Map<Integer, Description> testDescriptions = new HashMap<Integer, Description>();
-    private Set<String> testNames = new HashSet<String>();
+    private TaskIndex testDescriptions = new TaskIndex();
+    private UniqueNames testNames;
     private boolean receivedTestsList = false;
     private boolean allTestsFinished = false;
+    private int tasksCount = -1;
+    private int startedTasks = 0;
+    private int finishedTasks = 0;
+
+    // name given by attester to the task of each test, in the order of the tasks list
+    private Map<Description, String> taskNames = new LinkedHashMap<Description, String>();
+    // tests which are reported to JUnit, null when all the tests are
+    private Set<Description> selectedTests;
+    // selected tests of the current attester process which were not reported by a previous one
+    private int selectedTasksCount = 0;
+    private int finishedSelectedTasks = 0;
+    private boolean unselectedTasksReported = false;
+    // tests removed from the description tree by a JUnit filter
+    private Set<Description> filteredTests = newTestsSet();
+    // filters applied to the tests, also applied to the tasks found when the tasks list changes
+    private Filter filter;
+    // true when a JUnit sorter changed the order of the tests
+    private boolean sorted = false;
+    private TaskSharding sharding;
+
+    // names of the tasks which failed in the previous run, when only they are to be run
+    private Set<String> rerunTasks;
+    // true while running the failed tasks before the rest of the campaign
+    private boolean rerunFailedFirst = false;
+    private FailedTasks failedTasks;
+    private int selectedTasksFailed = 0;
+    // tests already reported by a previous attester process in the same run
+    private Set<Description> doneTests = newTestsSet();
 
-    private AttesterProcess nodeProcess;
-    private Collection<Process> browserProcesses = new Vector<Process>();
+    private TaskDurations durations;
+    // true when attester is given the tasks which took the longest first
+    private boolean longestFirst;
+    private TaskReport report;
+
+    private TaskTreeCache tasksCache;
+    // tasks list read from attester or from the cache, but not converted to descriptions yet
+    private Message prefetchedTasksList;
+    private TaskNode[] prefetchedCache;
+    // true once the current attester process gave its tasks list
+    private boolean campaignTasksReceived = false;
+    // true when the current attester process was only given the selected tasks
+    private boolean restricted = false;
+    // tests which are no longer in the campaign, or which were selected but are not run by attester
+    private Collection<Description> staleTasks = new ArrayList<Description>();
+
+    private AttesterServer.Connection server;
+    // attester being started in the background, until the runner needs it
+    private FutureTask<AttesterServer.Connection> eagerServer;
+    private int browsers;
     private RunNotifier runNotifier;
+    private CampaignMetrics metrics;
+    private boolean captureOutput;
+    // maximum number of lines added to a failure
+    private int captureLines;
+    // in milliseconds, 0 when there is no timeout
+    private long taskTimeout;
+    private long campaignTimeout;
+    private long runStartTime;
+    private Timer watchdog;
 
     private Map<String, MessageHandler> messageHandlers = new HashMap<String, MessageHandler>();
     {
         messageHandlers.put("tasksList", new MessageHandler() {
-            public void handleMessage(JsonNode message) {
-                TaskNode[] tests = treeToValue(message.get("tasks"), TaskNode[].class);
-                convertTestNodesArray(rootTestDescription, tests);
-                receivedTestsList = true;
+            public void handleMessage(Message message) {
+                TaskNode[] tasks = message.tasks != null ? message.tasks : new TaskNode[0];
+                if (receivedTestsList) {
+                    // the tests were described from the cache or by another attester process
+                    reconcileTasksList(tasks);
+                } else {
+                    convertTestNodesArray(rootTestDescription, tasks);
+                    receivedTestsList = true;
+                }
+                if (!restricted) {
+                    if (tasksCache != null) {
+                        tasksCache.save(tasks);
+                    }
+                    updateSelectedTests();
+                }
+                tasksCount = testDescriptions.size();
+                campaignTasksReceived = true;
+                countSelectedTasks();
+                checkUnselectedTasksReported();
+                adjustBrowserPool();
             }
         });
         messageHandlers.put("campaignFinished", new MessageHandler() {
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
                 allTestsFinished = true;
             }
         });
         messageHandlers.put("testStarted", new MessageHandler() {
             @Override
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
 
             }
         });
         messageHandlers.put("testFinished", new MessageHandler() {
             @Override
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
 
             }
         });
         messageHandlers.put("taskStarted", new MessageHandler() {
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
+                if (checkTaskFinished(message)) {
+                    return;
+                }
+                startedTasks++;
+                checkEvent(message, testDescriptions.taskStarted(message.taskId, System.currentTimeMillis()));
+                adjustBrowserPool();
+                if (!isSelected(message.taskId)) {
+                    return;
+                }
                 Description test = getCorrespondingTest(message, testDescriptions);
                 runNotifier.fireTestStarted(test);
             }
         });
         messageHandlers.put("taskFinished", new MessageHandler() {
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
+                if (checkTaskFinished(message)) {
+                    return;
+                }
+                finishedTasks++;
+                long duration = getDuration(message.taskId);
+                recordDuration(message.taskId, duration);
+                checkEvent(message, testDescriptions.taskFinished(message.taskId));
+                boolean failed = testDescriptions.isFailed(message.taskId);
                 Description test = getCorrespondingTest(message, testDescriptions);
-                runNotifier.fireTestFinished(test);
+                if (failedTasks != null && test != null) {
+                    failedTasks.taskFinished(test.getDisplayName(), failed);
+                }
+                if (!isSelected(message.taskId)) {
+                    return;
+                }
+                fireTestFinished(test, duration);
+                if (failed) {
+                    selectedTasksFailed++;
+                }
+                selectedTaskDone(test);
             }
         });
         messageHandlers.put("taskIgnored", new MessageHandler() {
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
+                if (checkTaskFinished(message)) {
+                    return;
+                }
+                startedTasks++;
+                finishedTasks++;
+                checkEvent(message, testDescriptions.taskIgnored(message.taskId));
+                if (!isSelected(message.taskId)) {
+                    return;
+                }
                 Description test = getCorrespondingTest(message, testDescriptions);
-                runNotifier.fireTestIgnored(test);
+                fireTestIgnored(test);
+                selectedTaskDone(test);
             }
         });
         messageHandlers.put("error", new MessageHandler() {
-            public void handleMessage(JsonNode message) {
+            public void handleMessage(Message message) {
+                if (checkTaskFinished(message)) {
+                    return;
+                }
+                checkEvent(message, testDescriptions.taskFailed(message.taskId));
+                if (!isSelected(message.taskId)) {
+                    return;
+                }
                 Description test = getCorrespondingTest(message, testDescriptions);
-                TestError error = treeToValue(message.get("error"), TestError.class);
-                Throwable javaException = TestErrorJavaException.createFromTestFailure(error);
-                runNotifier.fireTestFailure(new Failure(test, javaException));
+                Throwable javaException = TestErrorJavaException.createFromTestFailure(message.error,
+                        getCapturedOutput(message.taskId));
+                fireTestFailure(test, javaException);
             }
         });
         messageHandlers.put("serverAttached", new MessageHandler() {
             @Override
-            public void handleMessage(JsonNode message) {
-                // Start the browser
-                String[] phantomJSCmd = treeToValue(message.get("phantomJS"), String[].class);
-
-                for (int i = 0; i < 15; i++) {
-                    Process browserProcess = ExternalProcess.phantomjs.run(phantomJSCmd);
-                    StreamRedirector.redirectStream(browserProcess.getInputStream(), System.out);
-                    StreamRedirector.redirectStream(browserProcess.getErrorStream(), System.err);
-                    browserProcesses.add(browserProcess);
+            public void handleMessage(Message message) {
+                // Start the browsers
+                getBrowserPool().setBrowserCommand(message.phantomJS);
+                adjustBrowserPool();
+            }
+        });
+        messageHandlers.put(WATCHDOG_EVENT, new MessageHandler() {
+            @Override
+            public void handleMessage(Message message) {
+                if (server != null) {
+                    getBrowserPool().restartExitedBrowsers();
                 }
+                checkTimeouts();
             }
         });
     }
 
     private List<String> cmdLine = new Vector<String>();
+    // command line of the attester process which runs the campaign, null if it is the one above
+    private String[] campaignCmdLine;
+    private String includesOption;
+
+    private static int getBrowsers(Class<?> testClass) {
+        Browsers browsersAnnotation = testClass.getAnnotation(Browsers.class);
+        if (browsersAnnotation == null) {
+            return 0;
+        }
+        return browsersAnnotation.value();
+    }
 
     private static String getConfigFile(Class<?> testClass) {
         ConfigFile configFileAnnotation = testClass.getAnnotation(ConfigFile.class);
@@ -136,58 +305,757 @@ public class Attester extends Runner {
     }
 
     public Attester(Class<?> testClass) {
-        this(testClass.getName(), getConfigFile(testClass));
+        this(testClass.getName(), getConfigFile(testClass), getBrowsers(testClass));
     }
 
     public Attester(String rootTestName, String configFile) {
+        this(rootTestName, configFile, 0);
+    }
+
+    public Attester(String rootTestName, String configFile, int browsers) {
+        this(rootTestName, configFile, browsers, new UniqueNames());
+    }
+
+    // testNames can be shared between several runners when they are part of the same suite
+    public Attester(String rootTestName, String configFile, int browsers, UniqueNames testNames) {
+        this.browsers = browsers;
+        this.testNames = testNames;
+        sharding = TaskSharding.fromSystemProperties();
+        durations = TaskDurations.fromSystemProperties();
+        report = TaskReport.fromSystemProperties(rootTestName);
+        tasksCache = TaskTreeCache.fromSystemProperties(configFile);
+        failedTasks = FailedTasks.fromSystemProperties(configFile);
+        String rerunMode = FailedTasks.getRerunMode();
+        if (rerunMode != null && failedTasks != null && !failedTasks.isEmpty()) {
+            rerunTasks = failedTasks.getNames();
+            rerunFailedFirst = FailedTasks.RERUN_FIRST.equals(rerunMode);
+        }
         rootTestDescription = Description.createSuiteDescription(rootTestName);
+        metrics = new CampaignMetrics(rootTestName);
+        captureOutput = !"false".equals(System.getProperty(CAPTURE_OUTPUT_SYS_PROPERTY));
+        captureLines = Integer.getInteger(CAPTURE_LINES_SYS_PROPERTY, DEFAULT_CAPTURE_LINES);
+        taskTimeout = Long.getLong(TASK_TIMEOUT_SYS_PROPERTY, 0) * 1000;
+        campaignTimeout = Long.getLong(CAMPAIGN_TIMEOUT_SYS_PROPERTY, 0) * 1000;
         cmdLine.add("--no-colors");
         cmdLine.add(configFile);
+        includesOption = System.getProperty(INCLUDES_OPTION_SYS_PROPERTY, "");
+        longestFirst = durations != null && includesOption.length() > 0
+                && "true".equals(System.getProperty(LONGEST_FIRST_SYS_PROPERTY));
+        String eagerStart = System.getProperty(EAGER_START_SYS_PROPERTY, "false");
+        if (EAGER_START_NODE.equals(eagerStart) || EAGER_START_BROWSERS.equals(eagerStart)) {
+            startEagerly(EAGER_START_BROWSERS.equals(eagerStart));
+        }
+    }
+
+    // Starts attester (and its browsers) while JUnit discovers the other tests, instead of when the tests of this
+    // runner are first needed.
+    private void startEagerly(final boolean startBrowsers) {
+        final String[] cmd = cmdLine.toArray(new String[] {});
+        final int browsersCount = browsers;
+        eagerServer = new FutureTask<AttesterServer.Connection>(new Callable<AttesterServer.Connection>() {
+            public AttesterServer.Connection call() {
+                AttesterServer.Connection res = AttesterServer.connect(cmd, browsersCount);
+                if (startBrowsers) {
+                    try {
+                        res.getServer().startBrowsers();
+                    } catch (RuntimeException e) {
+                        // the runner gets the same error when it reads the messages
+                    }
+                }
+                return res;
+            }
+        });
+        Thread thread = new Thread(eagerServer, "attester-eager-start");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private AttesterServer.Connection getEagerServer() {
+        try {
+            return eagerServer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            eagerServer = null;
+        }
     }
 
     @Override
     public Description getDescription() {
-        if (!receivedTestsList) {
-            checkNodeStarted();
-            while (!receivedTestsList) {
-                readAndProcessMessage();
-            }
+        if (!receivedTestsList && !loadCachedTasksList()) {
+            prefetchTasksList();
+            Message tasksList = prefetchedTasksList;
+            prefetchedTasksList = null;
+            processMessage(tasksList);
         }
         return rootTestDescription;
     }
 
+    // Gets the tasks list without creating the descriptions of the tests. A suite does it for all its campaigns at
+    // the same time, then creates their descriptions one after the other, so that the names of the tests do not
+    // depend on which campaign gets its tasks list first.
+    void prefetchTasksList() {
+        if (receivedTestsList || prefetchedTasksList != null || prefetchedCache != null) {
+            return;
+        }
+        if (tasksCache != null && server == null) {
+            prefetchedCache = tasksCache.load();
+            if (prefetchedCache != null) {
+                return;
+            }
+        }
+        metrics.begin();
+        checkNodeStarted();
+        long begin = System.nanoTime();
+        while (prefetchedTasksList == null) {
+            long readBegin = System.nanoTime();
+            Message message = server.readMessage();
+            long read = System.nanoTime();
+            if ("tasksList".equals(message.event)) {
+                prefetchedTasksList = message;
+            } else {
+                processMessage(message);
+            }
+            metrics.messageProcessed(message, read - readBegin, System.nanoTime() - read);
+        }
+        metrics.tasksListReceived(System.nanoTime() - begin);
+    }
+
     @Override
     public void run(RunNotifier notifier) {
         if (runNotifier != null) {
             throw new IllegalStateException();
         }
         runNotifier = notifier;
+        runStartTime = System.currentTimeMillis();
+        metrics.runStarted();
+        if (report != null) {
+            report.open();
+        }
+        try {
+            runCampaign();
+            if (rerunFailedFirst) {
+                rerunFailedFirst = false;
+                if (selectedTasksFailed == 0) {
+                    restartCampaign();
+                    runCampaign();
+                } else {
+                    checkUnselectedTasksReported();
+                }
+            }
+        } finally {
+            runNotifier = null;
+            finishRun();
+        }
+    }
+
+    // each step is done even if the previous ones fail, so that attester is always stopped
+    private void finishRun() {
+        try {
+            if (durations != null) {
+                durations.save();
+            }
+        } finally {
+            try {
+                if (failedTasks != null) {
+                    failedTasks.save();
+                }
+            } finally {
+                try {
+                    if (report != null) {
+                        report.close();
+                    }
+                } finally {
+                    try {
+                        if (server != null) {
+                            server.release();
+                        }
+                    } finally {
+                        metrics.runFinished();
+                    }
+                }
+            }
+        }
+    }
+
+    // Stops attester and its browsers if they are still running, for example when the tests were described but not
+    // run. Running the campaign stops them at the end.
+    public void close() {
+        if (server == null && eagerServer != null) {
+            try {
+                server = getEagerServer();
+            } catch (RuntimeException e) {
+                // attester could not be started
+            }
+        }
+        if (server != null) {
+            server.release();
+        }
+    }
+
+    void setRunNotifier(RunNotifier notifier) {
+        runNotifier = notifier;
+    }
+
+    private void runCampaign() {
+        if (!restrictCampaign()) {
+            // none of the selected tests is left to run
+            reportUnselectedTests();
+            return;
+        }
+        checkNodeStarted();
+        server.claim();
+        // the server changes if its campaign was run by another runner
+        metrics.setServer(server.getServer(), 0);
+        checkUnselectedTasksReported();
+        startWatchdog();
         try {
-            checkNodeStarted();
             while (!allTestsFinished) {
                 readAndProcessMessage();
             }
         } finally {
-            runNotifier = null;
+            watchdog.cancel();
+        }
+    }
+
+    // The watchdog only adds messages to the queue, so that the checks are done by the thread which reports the
+    // results, even when attester does not send anything any more.
+    private void startWatchdog() {
+        final MessagePump messagePump = server.getServer().getMessagePump();
+        watchdog = new Timer("attester-watchdog", true);
+        watchdog.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                Message message = new Message();
+                message.event = WATCHDOG_EVENT;
+                messagePump.inject(message);
+            }
+        }, WATCHDOG_INTERVAL, WATCHDOG_INTERVAL);
+    }
+
+    // Tasks which take too long are reported as failed, as attester may never finish them (for example if their
+    // browser hangs). The events which attester may still send for them later are ignored.
+    private void checkTimeouts() {
+        long now = System.currentTimeMillis();
+        if (campaignTimeout > 0 && now - runStartTime > campaignTimeout) {
+            String reason = String.format(CAMPAIGN_TIMEOUT, campaignTimeout / 1000);
+            for (int taskId : testDescriptions.getTaskIds()) {
+                if (!testDescriptions.isFinished(taskId) && isSelected(taskId)
+                        && !doneTests.contains(testDescriptions.get(taskId))) {
+                    failTask(taskId, reason);
+                }
+            }
+            allTestsFinished = true;
+        } else if (taskTimeout > 0) {
+            String reason = String.format(TASK_TIMEOUT, taskTimeout / 1000);
+            for (int taskId : testDescriptions.getTaskIds()) {
+                long startTime = testDescriptions.getStartTime(taskId);
+                if (startTime >= 0 && now - startTime > taskTimeout) {
+                    failTask(taskId, reason);
+                }
+            }
+        }
+    }
+
+    private void failTask(int taskId, String reason) {
+        Description test = testDescriptions.get(taskId);
+        boolean started = testDescriptions.getState(taskId) == TaskIndex.State.RUNNING;
+        if (!started) {
+            startedTasks++;
+            testDescriptions.taskStarted(taskId, System.currentTimeMillis());
+        }
+        TestError error = new TestError();
+        error.message = reason;
+        Throwable javaException = TestErrorJavaException.createFromTestFailure(error, getCapturedOutput(taskId));
+        long duration = getDuration(taskId);
+        finishedTasks++;
+        testDescriptions.taskFailed(taskId);
+        testDescriptions.taskFinished(taskId);
+        if (failedTasks != null) {
+            failedTasks.taskFinished(test.getDisplayName(), true);
+        }
+        if (!isSelected(taskId)) {
+            return;
+        }
+        if (!started) {
+            runNotifier.fireTestStarted(test);
+        }
+        fireTestFailure(test, javaException);
+        fireTestFinished(test, duration);
+        selectedTasksFailed++;
+        selectedTaskDone(test);
+    }
+
+    // Attester runs all the tasks of its campaign. When only some of them are selected (by a shard, a JUnit filter or
+    // a rerun of the failed tasks), or when they were sorted, and an includes option is given, the campaign is run by
+    // a new attester process which is given the selected tasks, in the order of the tests, as includes on its command
+    // line. Without this option, the whole campaign is run and the other tasks are reported as ignored. Unless JUnit
+    // sorted the tests, the tasks which took the longest in the previous runs can also be given first, so that they do
+    // not end up alone at the end of the campaign. Returns false if there is no task to run.
+    private boolean restrictCampaign() {
+        campaignCmdLine = null;
+        restricted = false;
+        if (selectedTests == null && !sorted && !longestFirst) {
+            return true;
+        }
+        List<Description> includedTests = new ArrayList<Description>();
+        collectIncludes(rootTestDescription, includedTests);
+        if (includedTests.isEmpty()) {
+            return selectedTests == null;
+        }
+        boolean reordered = sorted;
+        if (longestFirst && !sorted) {
+            reordered = sortByDurations(includedTests);
+        }
+        Set<String> includes = new LinkedHashSet<String>();
+        for (Description test : includedTests) {
+            includes.add(taskNames.get(test));
+        }
+        if (includesOption.length() == 0 || includes.contains(null)
+                || (!reordered && includes.size() == taskNames.size())) {
+            return true;
+        }
+        List<String> cmd = new ArrayList<String>(cmdLine);
+        for (String include : includes) {
+            cmd.add(includesOption + "=" + include);
+        }
+        if (selectedTests == null) {
+            selectedTests = newTestsSet(taskNames.keySet());
+        }
+        if (server != null) {
+            // the one which gave the tasks list runs the whole campaign
+            server.release();
+            server = null;
+        }
+        if (eagerServer != null) {
+            try {
+                getEagerServer().release();
+            } catch (RuntimeException e) {
+                // the new attester process reports the same error
+            }
+        }
+        campaignCmdLine = cmd.toArray(new String[] {});
+        restricted = true;
+        return true;
+    }
+
+    private void collectIncludes(Description parent, List<Description> includes) {
+        for (Description child : parent.getChildren()) {
+            if (taskNames.containsKey(child) && isSelected(child) && !doneTests.contains(child)) {
+                includes.add(child);
+            }
+            collectIncludes(child, includes);
+        }
+    }
+
+    // Tasks which never ran come first, as they may be long. Returns true if the order changed.
+    private boolean sortByDurations(List<Description> tests) {
+        final Map<Description, Long> testDurations = new IdentityHashMap<Description, Long>();
+        for (Description test : tests) {
+            long duration = durations.get(test.getDisplayName());
+            testDurations.put(test, duration < 0 ? Long.MAX_VALUE : duration);
+        }
+        List<Description> sortedTests = new ArrayList<Description>(tests);
+        Collections.sort(sortedTests, new Comparator<Description>() {
+            public int compare(Description first, Description second) {
+                long difference = testDurations.get(second) - testDurations.get(first);
+                return difference > 0 ? 1 : (difference < 0 ? -1 : 0);
+            }
+        });
+        if (sortedTests.equals(tests)) {
+            return false;
+        }
+        tests.clear();
+        tests.addAll(sortedTests);
+        return true;
+    }
+
+    // Starts a new attester process to run the tasks which were not run by the previous one. Its tasks list is
+    // reconciled with the current tree, as for a cached tasks list.
+    private void restartCampaign() {
+        if (server != null) {
+            server.release();
+            server = null;
+        }
+        rerunTasks = null;
+        allTestsFinished = false;
+        tasksCount = -1;
+        startedTasks = 0;
+        finishedTasks = 0;
+        finishedSelectedTasks = 0;
+        unselectedTasksReported = false;
+        campaignTasksReceived = false;
+        // the selected tests which were not run are run by the new process
+        Iterator<Description> iterator = staleTasks.iterator();
+        while (iterator.hasNext()) {
+            if (taskNames.containsKey(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        testDescriptions = new TaskIndex();
+        updateSelectedTests();
+    }
+
+    public void filter(Filter filter) throws NoTestsRemainException {
+        getDescription();
+        this.filter = this.filter != null ? this.filter.intersect(filter) : filter;
+        filterChildren(filter, rootTestDescription);
+        updateSelectedTests();
+        if (rootTestDescription.getChildren().isEmpty()) {
+            throw new NoTestsRemainException();
+        }
+    }
+
+    private void filterChildren(Filter filter, Description parent) {
+        Iterator<Description> iterator = parent.getChildren().iterator();
+        while (iterator.hasNext()) {
+            Description child = iterator.next();
+            if (filter.shouldRun(child)) {
+                filterChildren(filter, child);
+                if (!child.getChildren().isEmpty() || taskNames.containsKey(child)) {
+                    continue;
+                }
+            }
+            iterator.remove();
+            removeTasks(child);
+        }
+    }
+
+    private void removeTasks(Description test) {
+        if (taskNames.containsKey(test)) {
+            filteredTests.add(test);
+        }
+        for (Description child : test.getChildren()) {
+            removeTasks(child);
+        }
+    }
+
+    // the new order is given to attester when the campaign is run
+    public void sort(Sorter sorter) {
+        List<Description> tests = getTests();
+        sortChildren(sorter, getDescription());
+        if (!tests.equals(getTests())) {
+            sorted = true;
+        }
+    }
+
+    // tests with a task, in the order of the description tree
+    private List<Description> getTests() {
+        List<Description> res = new ArrayList<Description>();
+        collectTests(rootTestDescription, res);
+        return res;
+    }
+
+    private void collectTests(Description parent, List<Description> tests) {
+        for (Description child : parent.getChildren()) {
+            if (taskNames.containsKey(child)) {
+                tests.add(child);
+            }
+            collectTests(child, tests);
+        }
+    }
+
+    private void sortChildren(Sorter sorter, Description parent) {
+        List<Description> children = parent.getChildren();
+        Collections.sort(children, sorter);
+        for (Description child : children) {
+            sortChildren(sorter, child);
         }
     }
 
     private void checkNodeStarted() {
-        if (nodeProcess != null) {
+        if (server != null) {
+            return;
+        }
+        long begin = System.nanoTime();
+        if (eagerServer != null) {
+            server = getEagerServer();
+        } else {
+            String[] cmd = campaignCmdLine != null ? campaignCmdLine : cmdLine.toArray(new String[] {});
+            server = AttesterServer.connect(cmd, browsers);
+        }
+        metrics.setServer(server.getServer(), System.nanoTime() - begin);
+    }
+
+    private BrowserPool getBrowserPool() {
+        return server.getServer().getBrowserPool();
+    }
+
+    private void adjustBrowserPool() {
+        if (server == null) {
+            return;
+        }
+        int pendingTasks = tasksCount < 0 ? -1 : tasksCount - startedTasks;
+        getBrowserPool().adjust(pendingTasks, startedTasks - finishedTasks);
+    }
+
+    private void updateSelectedTests() {
+        if (sharding == null && rerunTasks == null && filteredTests.isEmpty() && doneTests.isEmpty()) {
+            selectedTests = null;
+            return;
+        }
+        Collection<Description> tests = taskNames.keySet();
+        selectedTests = sharding != null ? sharding.selectTests(tests, durations) : newTestsSet(tests);
+        selectedTests.removeAll(filteredTests);
+        selectedTests.removeAll(doneTests);
+        if (rerunTasks != null) {
+            Iterator<Description> iterator = selectedTests.iterator();
+            while (iterator.hasNext()) {
+                if (!rerunTasks.contains(iterator.next().getDisplayName())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    // the run of the current attester process ends when all its selected tasks are finished
+    private void countSelectedTasks() {
+        selectedTasksCount = 0;
+        for (int taskId : testDescriptions.getTaskIds()) {
+            Description test = testDescriptions.get(taskId);
+            if (isSelected(test) && !doneTests.contains(test)) {
+                selectedTasksCount++;
+            }
+        }
+    }
+
+    private static Set<Description> newTestsSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Description, Boolean>());
+    }
+
+    private static Set<Description> newTestsSet(Collection<Description> tests) {
+        Set<Description> res = newTestsSet();
+        res.addAll(tests);
+        return res;
+    }
+
+    // in milliseconds, -1 if the task is not running
+    private long getDuration(int taskId) {
+        long startTime = testDescriptions.getStartTime(taskId);
+        return startTime >= 0 ? System.currentTimeMillis() - startTime : -1;
+    }
+
+    private void recordDuration(int taskId, long duration) {
+        Description test = testDescriptions.get(taskId);
+        if (durations != null && duration >= 0 && test != null) {
+            durations.record(test.getDisplayName(), duration);
+        }
+    }
+
+    // The protocol does not say which browser runs a task, so the output of a task is the last lines logged by
+    // attester and by all the browsers since it started.
+    private List<String> getCapturedOutput(int taskId) {
+        long startTime = testDescriptions.getStartTime(taskId);
+        if (!captureOutput || captureLines <= 0 || server == null || startTime < 0) {
+            return null;
+        }
+        return LogRing.getLastLines(server.getServer().getLogRings(), startTime, captureLines);
+    }
+
+    // returns true if the event is for a task which is already finished, so that it is not reported twice
+    private boolean checkTaskFinished(Message message) {
+        if (testDescriptions.isFinished(message.taskId)) {
+            checkEvent(message, false);
+            return true;
+        }
+        return false;
+    }
+
+    // duplicated or out of order events are reported, but do not stop the campaign
+    private void checkEvent(Message message, boolean expected) {
+        if (!expected && message.taskId != Message.NO_TASK_ID) {
+            System.err.println(String.format(UNEXPECTED_EVENT, message.event, message.taskId));
+        }
+    }
+
+    private boolean isSelected(int taskId) {
+        return isSelected(testDescriptions.get(taskId));
+    }
+
+    private boolean isSelected(Description test) {
+        return selectedTests == null || selectedTests.contains(test);
+    }
+
+    // Only the selected tests are reported, and the run ends as soon as they are all finished (even if attester was
+    // not given the selected tasks, and runs the whole campaign). The other tests are reported as ignored so that
+    // reports can be merged.
+    private void checkUnselectedTasksReported() {
+        if (runNotifier == null || !campaignTasksReceived) {
+            return;
+        }
+        if (selectedTests != null && selectedTasksCount == 0) {
+            allTestsFinished = true;
+        }
+        reportUnselectedTests();
+    }
+
+    private void reportUnselectedTests() {
+        if (rerunFailedFirst || unselectedTasksReported) {
+            // the other tasks may still be run after the failed ones
             return;
         }
-        nodeProcess = new AttesterProcess(cmdLine.toArray(new String[] {}));
+        unselectedTasksReported = true;
+        for (Description staleTask : staleTasks) {
+            if (!filteredTests.contains(staleTask) && !doneTests.contains(staleTask)) {
+                fireTestIgnored(staleTask);
+            }
+        }
+        if (selectedTests == null) {
+            return;
+        }
+        for (Description test : taskNames.keySet()) {
+            if (!selectedTests.contains(test) && !filteredTests.contains(test) && !doneTests.contains(test)) {
+                fireTestIgnored(test);
+            }
+        }
+    }
+
+    // results are given to the report as they are given to JUnit
+    private void fireTestFailure(Description test, Throwable exception) {
+        runNotifier.fireTestFailure(new Failure(test, exception));
+        if (report != null) {
+            report.testFailure(test, exception);
+        }
+    }
+
+    private void fireTestFinished(Description test, long duration) {
+        runNotifier.fireTestFinished(test);
+        if (report != null) {
+            report.testFinished(test, duration);
+        }
+    }
+
+    private void fireTestIgnored(Description test) {
+        runNotifier.fireTestIgnored(test);
+        if (report != null) {
+            report.testIgnored(test);
+        }
+    }
+
+    private void selectedTaskDone(Description test) {
+        doneTests.add(test);
+        finishedSelectedTasks++;
+        if (selectedTests != null && finishedSelectedTasks >= selectedTasksCount) {
+            allTestsFinished = true;
+        }
     }
 
     private void readAndProcessMessage() {
-        JsonNode message = nodeProcess.readMessage();
-        String type = message.get("event").asText();
-        MessageHandler handler = messageHandlers.get(type);
+        long begin = System.nanoTime();
+        Message message = server.readMessage();
+        long read = System.nanoTime();
+        processMessage(message);
+        metrics.messageProcessed(message, read - begin, System.nanoTime() - read);
+    }
+
+    // package-private so that benchmarks can give messages without an attester process
+    void processMessage(Message message) {
+        MessageHandler handler = messageHandlers.get(message.event);
         if (handler != null) {
             handler.handleMessage(message);
         }
     }
 
+    private boolean loadCachedTasksList() {
+        if (prefetchedCache == null && (tasksCache == null || server != null)) {
+            return false;
+        }
+        TaskNode[] tasks = prefetchedCache != null ? prefetchedCache : tasksCache.load();
+        prefetchedCache = null;
+        if (tasks == null) {
+            return false;
+        }
+        convertTestNodesArray(rootTestDescription, tasks);
+        receivedTestsList = true;
+        updateSelectedTests();
+        return true;
+    }
+
+    // Tasks of a new tasks list are matched by name with the tests already given to JUnit (in the order of the
+    // tasks lists when several tasks have the same name). When attester was only given the selected tasks, the ones
+    // it does not run are reported as ignored. Otherwise, new tasks are added at the root of the tree, and the tests
+    // whose task no longer exists are reported as ignored.
+    private void reconcileTasksList(TaskNode[] tasks) {
+        // the selected tests which are not done yet come first, so that they are the ones matched with the tasks of
+        // a restricted campaign
+        Map<String, LinkedList<Description>> tests = new HashMap<String, LinkedList<Description>>();
+        List<Description> otherTests = new ArrayList<Description>();
+        for (Description test : taskNames.keySet()) {
+            if (!restricted || (isSelected(test) && !doneTests.contains(test))) {
+                addTestByName(tests, test);
+            } else {
+                otherTests.add(test);
+            }
+        }
+        for (Description test : otherTests) {
+            addTestByName(tests, test);
+        }
+        testDescriptions = new TaskIndex();
+        int unexpectedTasks = 0;
+        for (TaskNode task : getTaskNodes(tasks, new ArrayList<TaskNode>())) {
+            LinkedList<Description> sameName = tests.get(task.name);
+            Description test = sameName != null ? sameName.poll() : null;
+            if (test == null) {
+                test = Description.createSuiteDescription(createUniqueName(task.getFilteredName()));
+                if (restricted) {
+                    // not given to JUnit, and not selected
+                    unexpectedTasks++;
+                } else {
+                    taskNames.put(test, task.name);
+                    if (filter != null && !filter.shouldRun(test)) {
+                        filteredTests.add(test);
+                    } else {
+                        rootTestDescription.addChild(test);
+                    }
+                }
+            } else if (restricted && (!isSelected(test) || doneTests.contains(test))) {
+                unexpectedTasks++;
+            }
+            testDescriptions.put(task.taskId, test);
+        }
+        for (LinkedList<Description> sameName : tests.values()) {
+            for (Description test : sameName) {
+                if (!restricted) {
+                    taskNames.remove(test);
+                    staleTasks.add(test);
+                } else if (isSelected(test) && !doneTests.contains(test)) {
+                    staleTasks.add(test);
+                }
+            }
+        }
+        if (unexpectedTasks > 0) {
+            System.err.println(String.format(UNEXPECTED_TASKS, unexpectedTasks, includesOption));
+        }
+    }
+
+    private void addTestByName(Map<String, LinkedList<Description>> tests, Description test) {
+        String name = taskNames.get(test);
+        LinkedList<Description> sameName = tests.get(name);
+        if (sameName == null) {
+            sameName = new LinkedList<Description>();
+            tests.put(name, sameName);
+        }
+        sameName.add(test);
+    }
+
+    private static List<TaskNode> getTaskNodes(TaskNode[] tasks, List<TaskNode> res) {
+        if (tasks != null) {
+            for (TaskNode task : tasks) {
+                if (task.taskId != null) {
+                    res.add(task);
+                }
+                getTaskNodes(task.subTasks, res);
+            }
+        }
+        return res;
+    }
+
     private void convertTestNodesArray(Description parent, TaskNode[] tests) {
         for (TaskNode testNode : tests) {
             Description currentNode = convertTestNode(testNode);
@@ -195,16 +1063,14 @@ public class Attester extends Runner {
         }
     }
 
+    private String createUniqueName(String initialName) {
+        return testNames.create(initialName);
+    }
+
     private Description convertTestNode(TaskNode testNode) {
-        String initialName = testNode.getFilteredName();
-        String name = initialName;
-        int i = 2;
-        while (!testNames.add(name)) {
-            name = initialName + i;
-            i++;
-        }
-        Description res = Description.createSuiteDescription(name);
+        Description res = Description.createSuiteDescription(createUniqueName(testNode.getFilteredName()));
         if (testNode.taskId != null) {
+            taskNames.put(res, testNode.name);
             Description previousValue = testDescriptions.put(testNode.taskId, res);
             if (previousValue != null) {
                 throw new RuntimeException("Received several tests with the same id: " + testNode.taskId);
@@ -17,12 +17,27 @@ package com.ariatemplates.attester.junit;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
-public class AttesterProcess {
+public class AttesterProcess extends EventSource {
     public static final String ATTESTER_EXPECTED_VERSION = "1.0";
     public static final String ATTESTER_PATH_SYS_PROPERTY = "com.ariatemplates.attester.path";
+    public static final String TRANSPORT_SYS_PROPERTY = "com.ariatemplates.attester.transport";
+    public static final String JSON_LOG_FILE_OPTION_SYS_PROPERTY = "com.ariatemplates.attester.jsonLogFileOption";
+    public static final String ENCODING_SYS_PROPERTY = "com.ariatemplates.attester.encoding";
+    public static final String ENCODING_OPTION_SYS_PROPERTY = "com.ariatemplates.attester.encodingOption";
+    public static final String TRANSPORT_STDOUT = "stdout";
+    public static final String TRANSPORT_FIFO = "fifo";
+    private static final String DEFAULT_JSON_LOG_FILE_OPTION = "--json-log-file";
     private static final String PATH_IN_ATTESTER_DIRECTORY = "bin" + File.separator + "attester.js";
 
     private static final String MISSING_SYS_PROPERTY = "Please define the following Java system property to specify the path to attester: "
@@ -32,23 +47,35 @@ public class AttesterProcess {
     private static final String INCOMPATIBLE_ATTESTER = "The attester external program does not behave as expected. Either its version is incompatible or there was an unknown error.";
     private static final String UNEXPECTED_ATTESTER_VERSION = "Warning: using attester version %s, which is a different version than expected (%s).";
     private static final String UNEXPECTED_PROCESS_TERMINATION = "The attester external program terminated unexpectedly.";
+    private static final String UNKNOWN_TRANSPORT = "Unknown value for the " + TRANSPORT_SYS_PROPERTY + " Java system property: %s";
+    private static final String UNSUPPORTED_ENCODING = "Attester uses an unsupported encoding for its messages: %s";
+    private static final String NO_ENCODING_OPTION = "Warning: the %s encoding is not requested to attester, as no option is given with the " + ENCODING_OPTION_SYS_PROPERTY + " Java system property.";
+    private static final String FIFO_CREATION_FAILED = "Failed to create the named pipe used to receive messages from attester: %s";
 
     private Process nodeProcess;
     private JsonInputStream inputMessages;
+    private File fifo;
+    private final LogRing logRing = StreamRedirector.createLogRing("attester");
 
     protected void finalize() throws Throwable {
         checkProcessEnded();
     };
 
-    private void checkProcessEnded() {
+    @Override
+    public void stop() {
+        checkProcessEnded();
+    }
+
+    private synchronized void checkProcessEnded() {
         if (nodeProcess != null) {
-            try {
-                nodeProcess.exitValue();
-            } catch (IllegalThreadStateException e) {
-                nodeProcess.destroy();
-            }
+            ExternalProcess.terminate(Collections.singletonList(nodeProcess));
             nodeProcess = null;
         }
+        if (fifo != null) {
+            fifo.delete();
+            fifo.getParentFile().delete();
+            fifo = null;
+        }
     }
 
     public AttesterProcess(String... cmd) {
@@ -58,16 +85,49 @@ public class AttesterProcess {
                 throw new ExternalProcessException(MISSING_SYS_PROPERTY);
             }
             File jsFile = new File(path, PATH_IN_ATTESTER_DIRECTORY);
-            String[] newCmd = new String[cmd.length + 2];
+            String transport = System.getProperty(TRANSPORT_SYS_PROPERTY, TRANSPORT_STDOUT);
+            boolean useFifo = TRANSPORT_FIFO.equals(transport);
+            if (!useFifo && !TRANSPORT_STDOUT.equals(transport)) {
+                throw new ExternalProcessException(String.format(UNKNOWN_TRANSPORT, transport));
+            }
+            String encoding = System.getProperty(ENCODING_SYS_PROPERTY, JsonInputStream.ENCODING_JSON);
+            if (!JsonInputStream.isSupportedEncoding(encoding)) {
+                throw new ExternalProcessException(String.format(UNSUPPORTED_ENCODING, encoding));
+            }
+            // attester has no such option, it is only requested to builds of attester which have one
+            String encodingOption = System.getProperty(ENCODING_OPTION_SYS_PROPERTY, "");
+            boolean requestEncoding = !JsonInputStream.ENCODING_JSON.equals(encoding) && encodingOption.length() > 0;
+            if (!JsonInputStream.ENCODING_JSON.equals(encoding) && !requestEncoding) {
+                System.err.println(String.format(NO_ENCODING_OPTION, encoding));
+            }
+            int options = (useFifo ? 3 : 2) + (requestEncoding ? 2 : 0);
+            String[] newCmd = new String[cmd.length + options];
             newCmd[0] = jsFile.getAbsolutePath();
             if (!jsFile.exists()) {
                 throw new ExternalProcessException(String.format(INVALID_PATH_IN_SYS_PROPERTY, path, new FileNotFoundException(newCmd[0])));
             }
-            newCmd[1] = "-j"; // JSON output
-            System.arraycopy(cmd, 0, newCmd, 2, cmd.length);
+            if (useFifo) {
+                // JSON output in a named pipe, stdout is left for logs
+                fifo = createFifo();
+                newCmd[1] = System.getProperty(JSON_LOG_FILE_OPTION_SYS_PROPERTY, DEFAULT_JSON_LOG_FILE_OPTION);
+                newCmd[2] = fifo.getAbsolutePath();
+            } else {
+                newCmd[1] = "-j"; // JSON output
+            }
+            if (requestEncoding) {
+                // the handshake message says whether attester accepted the encoding, it stays in JSON otherwise
+                newCmd[options - 2] = encodingOption;
+                newCmd[options - 1] = encoding;
+            }
+            System.arraycopy(cmd, 0, newCmd, options, cmd.length);
             nodeProcess = ExternalProcess.node.run(newCmd);
-            StreamRedirector.redirectStream(nodeProcess.getErrorStream(), System.out);
-            inputMessages = new JsonInputStream(nodeProcess.getInputStream());
+            StreamRedirector.redirectStream(nodeProcess.getErrorStream(), System.out, "attester", logRing);
+            if (useFifo) {
+                StreamRedirector.redirectStream(nodeProcess.getInputStream(), System.out, "attester", logRing);
+                inputMessages = new JsonInputStream(openFifo(fifo, nodeProcess));
+            } else {
+                inputMessages = new JsonInputStream(nodeProcess.getInputStream());
+            }
             checkCompatibility();
         } catch (RuntimeException e) {
             checkProcessEnded();
@@ -75,6 +135,64 @@ public class AttesterProcess {
         }
     }
 
+    // the last lines logged by attester
+    @Override
+    public LogRing getLogRing() {
+        return logRing;
+    }
+
+    private static File createFifo() {
+        try {
+            File directory = Files.createTempDirectory("attester").toFile();
+            File res = new File(directory, "messages");
+            Process mkfifo = ExternalProcess.mkfifo.run(res.getAbsolutePath());
+            StreamRedirector.redirectStream(mkfifo.getErrorStream(), System.err, "mkfifo", null);
+            if (mkfifo.waitFor() != 0) {
+                directory.delete();
+                throw new ExternalProcessException(String.format(FIFO_CREATION_FAILED, res));
+            }
+            return res;
+        } catch (IOException e) {
+            throw new ExternalProcessException(String.format(FIFO_CREATION_FAILED, e), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExternalProcessException(String.format(FIFO_CREATION_FAILED, e), e);
+        }
+    }
+
+    // Opening a named pipe for reading blocks until it is opened for writing. If node exits without opening it, it is
+    // opened for writing here, so that the reader gets the end of the stream instead of waiting forever.
+    private static InputStream openFifo(final File fifo, final Process process) {
+        final boolean[] opened = new boolean[1];
+        Thread watcher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    process.waitFor();
+                    synchronized (opened) {
+                        if (!opened[0]) {
+                            new FileOutputStream(fifo).close();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // the reader is no longer waiting
+                }
+            }
+        }, "attester-fifo-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        try {
+            FileChannel channel = FileChannel.open(fifo.toPath(), StandardOpenOption.READ);
+            synchronized (opened) {
+                opened[0] = true;
+            }
+            return Channels.newInputStream(channel);
+        } catch (IOException e) {
+            throw new ExternalProcessException(UNEXPECTED_PROCESS_TERMINATION, e);
+        }
+    }
+
     private void checkCompatibility() {
         try {
             JsonNode firstMessage = inputMessages.read();
@@ -86,6 +204,13 @@ public class AttesterProcess {
             if (!version.startsWith(ATTESTER_EXPECTED_VERSION)) {
                 System.err.println(String.format(UNEXPECTED_ATTESTER_VERSION, version, ATTESTER_EXPECTED_VERSION));
             }
+            JsonNode encoding = firstMessage.get("encoding");
+            if (encoding != null && !JsonInputStream.ENCODING_JSON.equals(encoding.asText())) {
+                if (!JsonInputStream.isSupportedEncoding(encoding.asText())) {
+                    throw new ExternalProcessException(String.format(UNSUPPORTED_ENCODING, encoding.asText()));
+                }
+                inputMessages.switchEncoding(encoding.asText());
+            }
         } catch (ExternalProcessException e) {
             throw e;
         } catch (RuntimeException e) {
@@ -93,9 +218,10 @@ public class AttesterProcess {
         }
     }
 
-    public JsonNode readMessage() {
+    @Override
+    public Message readMessage() {
         try {
-            JsonNode response = inputMessages.read();
+            Message response = inputMessages.readMessage();
             if (response == null) {
                 throw new RuntimeException(UNEXPECTED_PROCESS_TERMINATION);
             }
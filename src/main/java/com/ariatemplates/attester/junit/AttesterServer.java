@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// An attester node process (with its browsers) shared by all the runners of the JVM which use the same command line.
+// The messages received before the campaign is run are kept so that each runner can get the tasks list, and the
+// campaign itself can only be run by one of them: attester runs a single campaign per process. The other runners are
+// then moved to a new process the next time they read a message or claim the campaign. The process and the browsers
+// are stopped when the last runner releases the server.
+public class AttesterServer {
+    private static final int MESSAGES_BATCH_SIZE = 256;
+
+    private static final Map<String, AttesterServer> idleServers = new HashMap<String, AttesterServer>();
+    // servers not released yet, stopped by a shutdown hook if the JVM exits before
+    private static final Set<AttesterServer> liveServers = new HashSet<AttesterServer>();
+    private static Thread shutdownHook;
+
+    private final String key;
+    private final EventSource eventSource;
+    private final MessagePump messagePump;
+    private final BrowserPool browserPool;
+    private final List<Message> header = new ArrayList<Message>();
+    private final ArrayDeque<Message> pendingMessages = new ArrayDeque<Message>();
+    private Connection owner;
+    private int references = 0;
+    // whether a thread is waiting for messages from the pump
+    private boolean reading = false;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    private AttesterServer(String key, String[] cmdLine, BrowserPool browserPool) {
+        this.key = key;
+        this.browserPool = browserPool;
+        eventSource = EventSource.fromSystemProperties(cmdLine);
+        messagePump = new MessagePump(eventSource);
+        messagePump.start();
+    }
+
+    public static Connection connect(String[] cmdLine, int browsers) {
+        return new Connection(attach(cmdLine, browsers), cmdLine, browsers);
+    }
+
+    // a server which has not run its campaign yet, started if there is none
+    private static AttesterServer attach(String[] cmdLine, int browsers) {
+        String key = Arrays.asList(cmdLine).toString();
+        synchronized (AttesterServer.class) {
+            AttesterServer server = idleServers.get(key);
+            if (server == null) {
+                server = new AttesterServer(key, cmdLine, new BrowserPool(browsers));
+                idleServers.put(key, server);
+                liveServers.add(server);
+                addShutdownHook();
+            }
+            server.references++;
+            return server;
+        }
+    }
+
+    private static void addShutdownHook() {
+        if (shutdownHook != null) {
+            return;
+        }
+        shutdownHook = new Thread(new Runnable() {
+            public void run() {
+                List<AttesterServer> servers;
+                synchronized (AttesterServer.class) {
+                    servers = new ArrayList<AttesterServer>(liveServers);
+                }
+                for (AttesterServer server : servers) {
+                    server.stop();
+                }
+            }
+        }, "attester-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public BrowserPool getBrowserPool() {
+        return browserPool;
+    }
+
+    public MessagePump getMessagePump() {
+        return messagePump;
+    }
+
+    // the last lines logged by attester and by the browsers
+    public List<LogRing> getLogRings() {
+        List<LogRing> res = new ArrayList<LogRing>();
+        if (eventSource.getLogRing() != null) {
+            res.add(eventSource.getLogRing());
+        }
+        res.addAll(browserPool.getLogRings());
+        return res;
+    }
+
+    // returns null if the campaign is run by another connection, which then needs another server
+    private Message readMessage(Connection connection) {
+        while (true) {
+            synchronized (this) {
+                if (owner != null && owner != connection) {
+                    return null;
+                }
+                if (connection.position < header.size()) {
+                    return header.get(connection.position++);
+                }
+                if (!pendingMessages.isEmpty()) {
+                    Message message = pendingMessages.poll();
+                    if (owner == null) {
+                        header.add(message);
+                        connection.position++;
+                    }
+                    return message;
+                }
+                if (!startReading()) {
+                    continue;
+                }
+            }
+            readPendingMessages();
+        }
+    }
+
+    // Starts the browsers as soon as attester gives their command, without waiting for a runner to read it. The
+    // messages read here are kept for the runners, as the ones read before the campaign is claimed.
+    public void startBrowsers() {
+        while (true) {
+            synchronized (this) {
+                if (owner != null) {
+                    return;
+                }
+                for (Message message : header) {
+                    if ("serverAttached".equals(message.event)) {
+                        browserPool.setBrowserCommand(message.phantomJS);
+                        // the number of tasks is not known yet, so only one browser is started (the campaign may be
+                        // restricted to a few tasks); the others are started when the runner gets the tasks list
+                        browserPool.adjust(-1, 0);
+                        return;
+                    }
+                }
+                if (!pendingMessages.isEmpty()) {
+                    header.add(pendingMessages.poll());
+                    continue;
+                }
+                if (!startReading()) {
+                    continue;
+                }
+            }
+            readPendingMessages();
+        }
+    }
+
+    // Called with the lock of the server. Only one thread waits for the message pump at a time: returns false after
+    // waiting for the thread which is reading, so that the caller checks again what it was waiting for.
+    private boolean startReading() {
+        if (reading) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            return false;
+        }
+        reading = true;
+        return true;
+    }
+
+    // Waits for messages without the lock of the server, so that the other runners can claim or release it, and the
+    // shutdown hook can stop it, meanwhile.
+    private void readPendingMessages() {
+        List<Message> batch = new ArrayList<Message>();
+        try {
+            messagePump.drainTo(batch, MESSAGES_BATCH_SIZE);
+        } finally {
+            synchronized (this) {
+                pendingMessages.addAll(batch);
+                reading = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // returns false if the campaign is run by another connection, which then needs another server
+    private boolean claim(Connection connection) {
+        synchronized (AttesterServer.class) {
+            synchronized (this) {
+                if (owner != null && owner != connection) {
+                    return false;
+                }
+                owner = connection;
+                // the runners waiting for messages need another server
+                notifyAll();
+                // next runners will need a new process
+                if (idleServers.get(key) == this) {
+                    idleServers.remove(key);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (AttesterServer.class) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            if (idleServers.get(key) == this) {
+                idleServers.remove(key);
+            }
+            liveServers.remove(this);
+        }
+        stop();
+    }
+
+    // not synchronized, as the shutdown hook can stop a server while a runner uses it
+    private void stop() {
+        if (stopped.compareAndSet(false, true)) {
+            browserPool.stop();
+            eventSource.stop();
+        }
+    }
+
+    // A runner's access to a server. The server changes when its campaign is run by another runner, and the messages
+    // are then read again from the beginning, from a new attester process.
+    public static class Connection {
+        private final String[] cmdLine;
+        private final int browsers;
+        private volatile AttesterServer server;
+        private int position = 0;
+        private boolean released = false;
+
+        private Connection(AttesterServer server, String[] cmdLine, int browsers) {
+            this.server = server;
+            this.cmdLine = cmdLine;
+            this.browsers = browsers;
+        }
+
+        public AttesterServer getServer() {
+            return server;
+        }
+
+        public Message readMessage() {
+            while (true) {
+                Message message = server.readMessage(this);
+                if (message != null) {
+                    return message;
+                }
+                reconnect();
+            }
+        }
+
+        // Must be called before running the campaign, so that no other runner can read its messages.
+        public void claim() {
+            while (!server.claim(this)) {
+                reconnect();
+            }
+        }
+
+        private synchronized void reconnect() {
+            if (released) {
+                throw new IllegalStateException();
+            }
+            AttesterServer previousServer = server;
+            server = attach(cmdLine, browsers);
+            position = 0;
+            previousServer.release();
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                server.release();
+            }
+        }
+    }
+}
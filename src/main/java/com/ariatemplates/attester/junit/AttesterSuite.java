@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+
+public class AttesterSuite extends ParentRunner<Attester> implements Closeable {
+    @Target(ElementType.TYPE)
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface ConfigFiles {
+        // each value is either the path of a configuration file or a glob pattern such as "test/**/attester.yml"
+        String[] value();
+    }
+
+    public static final String PARALLEL_CAMPAIGNS_SYS_PROPERTY = "com.ariatemplates.attester.parallelCampaigns";
+    private static final String MISSING_ANNOTATION = "The %s class must be annotated with @AttesterSuite.ConfigFiles.";
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final List<Attester> campaigns = new ArrayList<Attester>();
+    private final ExecutorService executor;
+    private boolean childrenDescribed = false;
+
+    public AttesterSuite(Class<?> testClass) throws InitializationError {
+        super(testClass);
+        ConfigFiles configFilesAnnotation = testClass.getAnnotation(ConfigFiles.class);
+        if (configFilesAnnotation == null) {
+            throw new InitializationError(String.format(MISSING_ANNOTATION, testClass.getName()));
+        }
+        // a configuration file matched by several values is only run once
+        Map<String, String> uniqueConfigFiles = new LinkedHashMap<String, String>();
+        for (String configFile : configFilesAnnotation.value()) {
+            for (String file : expandConfigFile(configFile)) {
+                String key = new File(file).getAbsoluteFile().toPath().normalize().toString();
+                if (!uniqueConfigFiles.containsKey(key)) {
+                    uniqueConfigFiles.put(key, file);
+                }
+            }
+        }
+        List<String> configFiles = new ArrayList<String>(uniqueConfigFiles.values());
+        int parallelCampaigns = Integer.getInteger(PARALLEL_CAMPAIGNS_SYS_PROPERTY, configFiles.size());
+        parallelCampaigns = Math.max(1, Math.min(parallelCampaigns, configFiles.size()));
+
+        // the browsers of the machine are shared between the campaigns which run at the same time
+        Attester.Browsers browsersAnnotation = testClass.getAnnotation(Attester.Browsers.class);
+        int browsers = browsersAnnotation != null ? browsersAnnotation.value() : Math.max(1,
+                BrowserPool.getDefaultSize() / parallelCampaigns);
+
+        // test names must be unique in the whole suite, as descriptions are compared by name, and they are given in
+        // the order of the campaigns (see describeChildren)
+        UniqueNames testNames = new UniqueNames();
+        for (String configFile : configFiles) {
+            campaigns.add(new Attester(configFile, configFile, browsers, testNames));
+        }
+        executor = Executors.newFixedThreadPool(parallelCampaigns, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "attester-campaign");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        setScheduler(new RunnerScheduler() {
+            private final List<Future<?>> campaignsRuns = new ArrayList<Future<?>>();
+
+            public void schedule(Runnable childStatement) {
+                campaignsRuns.add(executor.submit(childStatement));
+            }
+
+            public void finished() {
+                waitFor(campaignsRuns);
+                executor.shutdown();
+            }
+        });
+    }
+
+    private static List<String> expandConfigFile(String configFile) {
+        int firstGlobChar = -1;
+        for (int i = 0, l = configFile.length(); i < l && firstGlobChar < 0; i++) {
+            if (GLOB_CHARS.indexOf(configFile.charAt(i)) > -1) {
+                firstGlobChar = i;
+            }
+        }
+        if (firstGlobChar < 0) {
+            if (!new File(configFile).exists()) {
+                throw new RuntimeException(new FileNotFoundException(new File(configFile).getAbsolutePath()));
+            }
+            return Collections.singletonList(configFile);
+        }
+        int baseEnd = Math.max(configFile.lastIndexOf('/', firstGlobChar), configFile.lastIndexOf(File.separatorChar,
+                firstGlobChar));
+        final Path baseDirectory = Paths.get(baseEnd < 0 ? "." : configFile.substring(0, baseEnd + 1));
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + configFile.substring(baseEnd + 1));
+        final List<String> res = new ArrayList<String>();
+        try {
+            Files.walkFileTree(baseDirectory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (matcher.matches(baseDirectory.relativize(file))) {
+                        res.add(baseDirectory.resolve(baseDirectory.relativize(file)).toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (res.isEmpty()) {
+            throw new RuntimeException(new FileNotFoundException(configFile));
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        try {
+            super.run(notifier);
+        } finally {
+            close();
+        }
+    }
+
+    // campaigns removed by a filter were described, but are not run
+    public void close() {
+        for (Attester campaign : campaigns) {
+            campaign.close();
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public Description getDescription() {
+        describeChildren();
+        return super.getDescription();
+    }
+
+    // Starts all the campaigns at the same time to get their tasks lists, then creates their descriptions in the
+    // order of the campaigns, so that the suffixes added to the names used in several campaigns are always the same
+    // (durations, failures and shards are stored by test name).
+    private synchronized void describeChildren() {
+        if (childrenDescribed) {
+            return;
+        }
+        childrenDescribed = true;
+        List<Future<?>> tasksLists = new ArrayList<Future<?>>();
+        for (final Attester campaign : campaigns) {
+            tasksLists.add(executor.submit(new Runnable() {
+                public void run() {
+                    campaign.prefetchTasksList();
+                }
+            }));
+        }
+        waitFor(tasksLists);
+        for (Attester campaign : campaigns) {
+            campaign.getDescription();
+        }
+    }
+
+    @Override
+    protected List<Attester> getChildren() {
+        return campaigns;
+    }
+
+    @Override
+    protected Description describeChild(Attester child) {
+        describeChildren();
+        return child.getDescription();
+    }
+
+    @Override
+    protected void runChild(Attester child, RunNotifier notifier) {
+        try {
+            child.run(new SynchronizedRunNotifier(notifier));
+        } catch (RuntimeException e) {
+            synchronized (notifier) {
+                notifier.fireTestFailure(new Failure(child.getDescription(), e));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.Collection;
+import java.util.ServiceLoader;
+
+// Starts, checks and stops the browsers of one engine. The built-in engines are phantomjs, chromium, firefox and stub.
+// Other engines are either commands set in com.ariatemplates.attester.browser.<name>.command, or subclasses declared
+// in META-INF/services/com.ariatemplates.attester.junit.BrowserLauncher.
+public abstract class BrowserLauncher {
+    public static final String BROWSER_COMMAND_SYS_PROPERTY = "com.ariatemplates.attester.browser.%s.command";
+    public static final String ENGINE_PHANTOMJS = "phantomjs";
+    public static final String ENGINE_CHROMIUM = "chromium";
+    public static final String ENGINE_FIREFOX = "firefox";
+    public static final String ENGINE_STUB = "stub";
+
+    private static final String UNKNOWN_ENGINE = "Unknown browser engine: %s\nYou can define it by setting the following Java system property to its command line: %s";
+
+    public static BrowserLauncher forName(String name) {
+        String command = System.getProperty(String.format(BROWSER_COMMAND_SYS_PROPERTY, name));
+        if (command != null && command.trim().length() > 0) {
+            return CommandBrowserLauncher.fromCommandLine(name, command);
+        } else if (ENGINE_PHANTOMJS.equals(name)) {
+            return new CommandBrowserLauncher(name, ExternalProcess.phantomjs, CommandBrowserLauncher.ARGS);
+        } else if (ENGINE_CHROMIUM.equals(name)) {
+            return new CommandBrowserLauncher(name, ExternalProcess.chromium, "--headless", "--disable-gpu",
+                    "--no-first-run", "--no-default-browser-check", "--user-data-dir=" + CommandBrowserLauncher.PROFILE,
+                    CommandBrowserLauncher.URL);
+        } else if (ENGINE_FIREFOX.equals(name)) {
+            return new CommandBrowserLauncher(name, ExternalProcess.firefox, "--headless", "--no-remote", "--profile",
+                    CommandBrowserLauncher.PROFILE, CommandBrowserLauncher.URL);
+        } else if (ENGINE_STUB.equals(name)) {
+            return new StubBrowserLauncher();
+        }
+        for (BrowserLauncher launcher : ServiceLoader.load(BrowserLauncher.class)) {
+            if (name.equals(launcher.getName())) {
+                return launcher;
+            }
+        }
+        throw new IllegalArgumentException(String.format(UNKNOWN_ENGINE, name, String.format(
+                BROWSER_COMMAND_SYS_PROPERTY, name)));
+    }
+
+    // The URL of the page which connects a browser to attester, or null if it is not in the command line given by
+    // attester for PhantomJS (where it comes after the PhantomJS script and its options).
+    public static String getSlaveURL(String[] phantomJSCmd) {
+        for (int i = phantomJSCmd.length - 1; i >= 0; i--) {
+            if (phantomJSCmd[i].startsWith("http://") || phantomJSCmd[i].startsWith("https://")) {
+                return phantomJSCmd[i];
+            }
+        }
+        return null;
+    }
+
+    public abstract String getName();
+
+    // phantomJSCmd is the command line given by attester in its serverAttached message, to start PhantomJS.
+    public abstract Process start(String[] phantomJSCmd);
+
+    public boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    // Also called for browsers which exited by themselves, so that what they used can be cleaned.
+    public void stop(Collection<Process> processes) {
+        ExternalProcess.terminate(processes);
+    }
+}
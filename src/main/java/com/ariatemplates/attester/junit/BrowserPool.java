@@ -0,0 +1,313 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BrowserPool {
+    public static final String BROWSERS_SYS_PROPERTY = "com.ariatemplates.attester.browsers";
+    public static final String MAX_BROWSERS_SYS_PROPERTY = "com.ariatemplates.attester.maxBrowsers";
+    public static final String BROWSER_ENGINES_SYS_PROPERTY = "com.ariatemplates.attester.browserEngines";
+
+    // rough resident size of a PhantomJS instance running a test page
+    private static final long MEMORY_PER_BROWSER = 150L * 1024 * 1024;
+    private static final String INVALID_SIZE = "Invalid number of browsers: %s";
+    private static final String INVALID_ENGINES = "Invalid value for the " + BROWSER_ENGINES_SYS_PROPERTY
+        + " Java system property: %s";
+    private static final String BROWSER_EXITED = "Warning: %s (%s) exited with code %d, starting a new browser.";
+    private static final String TOO_MANY_EXITED_BROWSERS = "Warning: %s (%s) exited with code %d, no new browser is started as %d browsers exited.";
+    // no browser is started any more after this number of browsers exited, so that a broken browser does not loop
+    private static final int MAX_EXITED_BROWSERS = 10;
+
+    // browsers are numbered in the JVM, so that their logs can be told apart
+    private static final AtomicInteger browserIds = new AtomicInteger();
+
+    private final Collection<Process> browserProcesses = new Vector<Process>();
+    private final List<LogRing> logRings = new ArrayList<LogRing>();
+    private final Map<Process, String> browserNames = new HashMap<Process, String>();
+    private final Map<Process, Engine> browserEngines = new HashMap<Process, Engine>();
+    private final List<Engine> engines;
+    private int exitedBrowsers = 0;
+    private String[] browserCmd;
+    private int size;
+    private int maxSize;
+    private long startupTime = 0;
+
+    public BrowserPool() {
+        this(0);
+    }
+
+    public BrowserPool(int requestedSize) {
+        int defaultSize = getIntSysProperty(BROWSERS_SYS_PROPERTY, requestedSize > 0 ? requestedSize
+                : getDefaultSize());
+        engines = getEngines(System.getProperty(BROWSER_ENGINES_SYS_PROPERTY, BrowserLauncher.ENGINE_PHANTOMJS),
+                defaultSize);
+        for (Engine engine : engines) {
+            size += engine.size;
+        }
+        maxSize = Math.max(size, getIntSysProperty(MAX_BROWSERS_SYS_PROPERTY, size));
+    }
+
+    // The value is a comma-separated list of engines, each one followed by a colon and its number of browsers, which
+    // is the default size of the pool if it is omitted. For example: phantomjs:2,chromium:4
+    private static List<Engine> getEngines(String value, int defaultSize) {
+        List<Engine> res = new ArrayList<Engine>();
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (item.length() == 0) {
+                continue;
+            }
+            int colon = item.indexOf(':');
+            String name = colon > -1 ? item.substring(0, colon).trim() : item;
+            int engineSize = colon > -1 ? parseSize(item.substring(colon + 1)) : defaultSize;
+            res.add(new Engine(BrowserLauncher.forName(name), engineSize));
+        }
+        if (res.isEmpty()) {
+            throw new IllegalArgumentException(String.format(INVALID_ENGINES, value));
+        }
+        return res;
+    }
+
+    private static int getIntSysProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return parseSize(value);
+    }
+
+    private static int parseSize(String value) {
+        try {
+            int res = Integer.parseInt(value.trim());
+            if (res < 1) {
+                throw new NumberFormatException();
+            }
+            return res;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(INVALID_SIZE, value), e);
+        }
+    }
+
+    public static int getDefaultSize() {
+        int res = Runtime.getRuntime().availableProcessors();
+        long memory = getTotalPhysicalMemory();
+        if (memory > 0) {
+            res = (int) Math.min(res, memory / (2 * MEMORY_PER_BROWSER));
+        }
+        return Math.max(1, res);
+    }
+
+    private static OperatingSystemMXBean getOperatingSystem() {
+        return ManagementFactory.getOperatingSystemMXBean();
+    }
+
+    private static long getTotalPhysicalMemory() {
+        return getMemorySize("getTotalMemorySize", "getTotalPhysicalMemorySize");
+    }
+
+    private static long getFreePhysicalMemory() {
+        return getMemorySize("getFreeMemorySize", "getFreePhysicalMemorySize");
+    }
+
+    // Through reflection, as the methods of com.sun.management.OperatingSystemMXBean were renamed in Java 14 and the
+    // old ones are deprecated. Returns -1 if the size is not available.
+    private static long getMemorySize(String method, String oldMethod) {
+        OperatingSystemMXBean os = getOperatingSystem();
+        try {
+            Class<?> osClass = Class.forName("com.sun.management.OperatingSystemMXBean");
+            if (!osClass.isInstance(os)) {
+                return -1;
+            }
+            try {
+                return (Long) osClass.getMethod(method).invoke(os);
+            } catch (NoSuchMethodException e) {
+                return (Long) osClass.getMethod(oldMethod).invoke(os);
+            }
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static boolean isOverloaded() {
+        OperatingSystemMXBean os = getOperatingSystem();
+        double load = os.getSystemLoadAverage();
+        if (load >= 0 && load > os.getAvailableProcessors()) {
+            return true;
+        }
+        long freeMemory = getFreePhysicalMemory();
+        return freeMemory >= 0 && freeMemory < MEMORY_PER_BROWSER;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getStartedBrowsers() {
+        return browserProcesses.size();
+    }
+
+    // time spent starting the browser processes, in milliseconds
+    public synchronized long getStartupTime() {
+        return startupTime / 1000000;
+    }
+
+    // the last lines logged by each browser started by the pool
+    public synchronized List<LogRing> getLogRings() {
+        return new ArrayList<LogRing>(logRings);
+    }
+
+    public synchronized void setBrowserCommand(String[] cmd) {
+        browserCmd = cmd;
+    }
+
+    public synchronized boolean isReady() {
+        return browserCmd != null;
+    }
+
+    // pendingTasks is the number of tasks not started yet, or -1 if it is not known yet, in which case only one
+    // browser is started, so that there are never more browsers than tasks.
+    // Browsers are never stopped here, as there is no way to know which one is idle, so shrinking the pool
+    // only means that no more browsers are started while the machine is overloaded.
+    public synchronized void adjust(int pendingTasks, int runningTasks) {
+        if (browserCmd == null || exitedBrowsers > MAX_EXITED_BROWSERS) {
+            return;
+        }
+        int started = browserProcesses.size();
+        int target = 1;
+        if (pendingTasks >= 0) {
+            int needed = pendingTasks + runningTasks;
+            target = size;
+            if (needed > started && started >= size && !isOverloaded()) {
+                // some tasks are waiting for a browser: grow the pool, one browser at a time
+                target = Math.min(maxSize, started + 1);
+            }
+            target = Math.min(target, Math.max(1, needed));
+        }
+        while (browserProcesses.size() < target) {
+            startBrowser();
+        }
+    }
+
+    // Browsers which exited (crashed or killed) are replaced by new ones, which attester gives the next tasks to.
+    // Returns the number of browsers which exited.
+    public synchronized int restartExitedBrowsers() {
+        if (browserCmd == null) {
+            return 0;
+        }
+        List<Engine> exitedEngines = new ArrayList<Engine>();
+        Iterator<Process> iterator = browserProcesses.iterator();
+        while (iterator.hasNext()) {
+            Process browserProcess = iterator.next();
+            Engine engine = browserEngines.get(browserProcess);
+            if (engine.launcher.isAlive(browserProcess)) {
+                continue;
+            }
+            int exitValue;
+            try {
+                exitValue = browserProcess.exitValue();
+            } catch (IllegalThreadStateException e) {
+                // not responding any more according to its launcher
+                exitValue = -1;
+            }
+            iterator.remove();
+            browserEngines.remove(browserProcess);
+            engine.processes.remove(browserProcess);
+            engine.launcher.stop(Collections.singletonList(browserProcess));
+            exitedEngines.add(engine);
+            exitedBrowsers++;
+            String name = browserNames.remove(browserProcess);
+            if (exitedBrowsers <= MAX_EXITED_BROWSERS) {
+                System.err.println(String.format(BROWSER_EXITED, name, engine.launcher.getName(), exitValue));
+            } else {
+                System.err.println(String.format(TOO_MANY_EXITED_BROWSERS, name, engine.launcher.getName(),
+                        exitValue, exitedBrowsers));
+            }
+        }
+        // each browser is replaced by one of the same engine
+        for (Engine engine : exitedEngines) {
+            if (exitedBrowsers <= MAX_EXITED_BROWSERS) {
+                startBrowser(engine);
+            }
+        }
+        return exitedEngines.size();
+    }
+
+    public synchronized void stop() {
+        for (Engine engine : engines) {
+            engine.launcher.stop(new ArrayList<Process>(engine.processes));
+            engine.processes.clear();
+        }
+        browserProcesses.clear();
+        browserEngines.clear();
+        browserNames.clear();
+        browserCmd = null;
+    }
+
+    // the engine which has the fewest browsers for its size, so that all the engines grow together
+    private Engine chooseEngine() {
+        Engine res = null;
+        for (Engine engine : engines) {
+            if (res == null || engine.processes.size() * res.size < res.processes.size() * engine.size) {
+                res = engine;
+            }
+        }
+        return res;
+    }
+
+    private void startBrowser() {
+        startBrowser(chooseEngine());
+    }
+
+    private void startBrowser(Engine engine) {
+        long begin = System.nanoTime();
+        Process browserProcess = engine.launcher.start(browserCmd);
+        String name = "browser-" + browserIds.incrementAndGet();
+        LogRing logRing = StreamRedirector.createLogRing(name);
+        StreamRedirector.redirectStream(browserProcess.getInputStream(), System.out, name, logRing);
+        StreamRedirector.redirectStream(browserProcess.getErrorStream(), System.err, name, logRing);
+        browserProcesses.add(browserProcess);
+        browserNames.put(browserProcess, name);
+        browserEngines.put(browserProcess, engine);
+        engine.processes.add(browserProcess);
+        logRings.add(logRing);
+        startupTime += System.nanoTime() - begin;
+    }
+
+    private static class Engine {
+        private final BrowserLauncher launcher;
+        private final int size;
+        private final List<Process> processes = new ArrayList<Process>();
+
+        public Engine(BrowserLauncher launcher, int size) {
+            this.launcher = launcher;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.lang.management.ManagementFactory;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Where the time of a campaign goes, exposed through JMX (com.ariatemplates.attester:type=Campaign) while the campaign
+// runs, logged periodically if requested, and summarized at the end of the run. The metrics are only updated by the
+// thread which runs the campaign, without locks, and are published to the other threads through volatile fields and
+// atomic arrays.
+public class CampaignMetrics implements CampaignMetricsMXBean {
+    public static final String METRICS_INTERVAL_SYS_PROPERTY = "com.ariatemplates.attester.metricsInterval";
+    public static final String METRICS_SUMMARY_SYS_PROPERTY = "com.ariatemplates.attester.metricsSummary";
+
+    private static final String REGISTRATION_FAILED = "Warning: the metrics of %s could not be registered in JMX: %s";
+    private static final String LOG_LINE = "[attester-junit] %s: %d tasks finished, %d running, %d browsers, %.0f events/s, queue %d/%d, reporting %d ms, waiting %d ms";
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private static final String[] EVENTS = Message.KNOWN_EVENTS;
+    private static final Map<String, Integer> EVENT_INDEXES = new HashMap<String, Integer>();
+    static {
+        for (int i = 0; i < EVENTS.length; i++) {
+            EVENT_INDEXES.put(EVENTS[i], i);
+        }
+    }
+    private static final int TASK_STARTED = EVENT_INDEXES.get("taskStarted");
+    private static final int TASK_FINISHED = EVENT_INDEXES.get("taskFinished");
+
+    private final String name;
+    private final AtomicLongArray eventCounts = new AtomicLongArray(EVENTS.length);
+    private final AtomicLongArray reportingTimes = new AtomicLongArray(EVENTS.length);
+    private final AtomicLongArray maxReportingTimes = new AtomicLongArray(EVENTS.length);
+
+    private volatile AttesterServer server;
+    private volatile long startTime = -1;
+    private volatile long endTime = -1;
+    private volatile long attesterStartupTime = 0;
+    private volatile long tasksListWaitTime = 0;
+    private volatile long messagesWaitTime = 0;
+    private volatile long reportingTime = 0;
+    private volatile long otherEvents = 0;
+
+    private volatile int runningTasks = 0;
+    private volatile long finishedTasks = 0;
+    private volatile long tasksBusyTime = 0;
+    private long lastTasksChange = 0;
+    // tasks of the current attester process which were started and finished, as attester starts a task again when
+    // its browser is lost
+    private final BitSet startedTaskIds = new BitSet();
+    private final BitSet finishedTaskIds = new BitSet();
+
+    private ObjectName objectName;
+    private Timer timer;
+
+    public CampaignMetrics(String name) {
+        this.name = name;
+    }
+
+    // The campaign is considered as started the first time the runner needs attester.
+    public void begin() {
+        if (startTime < 0) {
+            startTime = System.nanoTime();
+        }
+    }
+
+    public void setServer(AttesterServer server, long startupTime) {
+        if (server != this.server) {
+            // task ids are given again by a new process, and the tasks of the previous one are not finished
+            updateBusyTime(System.nanoTime());
+            runningTasks = 0;
+            startedTaskIds.clear();
+            finishedTaskIds.clear();
+        }
+        this.server = server;
+        attesterStartupTime += startupTime;
+    }
+
+    public void tasksListReceived(long waitTime) {
+        tasksListWaitTime += waitTime;
+    }
+
+    public void messageProcessed(Message message, long waitTime, long processingTime) {
+        messagesWaitTime += waitTime;
+        reportingTime += processingTime;
+        Integer index = EVENT_INDEXES.get(message.event);
+        if (index == null) {
+            otherEvents++;
+            return;
+        }
+        // lazySet is enough, as there is a single writer
+        eventCounts.lazySet(index, eventCounts.get(index) + 1);
+        reportingTimes.lazySet(index, reportingTimes.get(index) + processingTime);
+        if (processingTime > maxReportingTimes.get(index)) {
+            maxReportingTimes.lazySet(index, processingTime);
+        }
+        int taskId = message.taskId;
+        if (taskId < 0) {
+            return;
+        }
+        if (index == TASK_STARTED && !startedTaskIds.get(taskId)) {
+            updateBusyTime(System.nanoTime());
+            startedTaskIds.set(taskId);
+            runningTasks++;
+        } else if (index == TASK_FINISHED && startedTaskIds.get(taskId) && !finishedTaskIds.get(taskId)) {
+            updateBusyTime(System.nanoTime());
+            finishedTaskIds.set(taskId);
+            runningTasks--;
+            finishedTasks++;
+        }
+    }
+
+    // the busy time of browsers is the sum of the times during which each task was running
+    private void updateBusyTime(long now) {
+        if (runningTasks > 0) {
+            tasksBusyTime += runningTasks * (now - lastTasksChange);
+        }
+        lastTasksChange = now;
+    }
+
+    public void runStarted() {
+        begin();
+        register();
+        long interval = Long.getLong(METRICS_INTERVAL_SYS_PROPERTY, 0);
+        if (interval > 0) {
+            synchronized (this) {
+                timer = new Timer("attester-metrics", true);
+                timer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        System.out.println(getLogLine());
+                    }
+                }, interval * 1000, interval * 1000);
+            }
+        }
+    }
+
+    public void runFinished() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+        }
+        updateBusyTime(System.nanoTime());
+        endTime = System.nanoTime();
+        unregister();
+        if ("true".equals(System.getProperty(METRICS_SUMMARY_SYS_PROPERTY))) {
+            System.out.println(getSummary());
+        }
+    }
+
+    private void register() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName res = new ObjectName("com.ariatemplates.attester:type=Campaign,name=" + ObjectName.quote(name));
+            mbeanServer.registerMBean(this, res);
+            synchronized (this) {
+                objectName = res;
+            }
+        } catch (JMException e) {
+            System.err.println(String.format(REGISTRATION_FAILED, name, e));
+        }
+    }
+
+    private void unregister() {
+        ObjectName res;
+        synchronized (this) {
+            res = objectName;
+            objectName = null;
+        }
+        if (res != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(res);
+            } catch (JMException e) {
+                // already unregistered
+            }
+        }
+    }
+
+    public String getLogLine() {
+        MessagePump pump = server != null ? server.getMessagePump() : null;
+        return String.format(LOG_LINE, name, finishedTasks, runningTasks, getBrowsers(), getEventsPerSecond(),
+                pump != null ? pump.getQueueDepth() : 0, pump != null ? pump.getQueueSize() : 0,
+                getReportingTime(), getMessagesWaitTime());
+    }
+
+    public String getSummary() {
+        StringBuilder res = new StringBuilder();
+        long elapsed = getElapsedTime();
+        res.append(String.format("Attester campaign %s took %s:%n", name, formatTime(elapsed)));
+        res.append(String.format("  attester startup: %s%n", formatTime(getAttesterStartupTime())));
+        res.append(String.format("  waiting for the tasks list: %s%n", formatTime(getTasksListWaitTime())));
+        res.append(String.format("  waiting for attester messages: %s%n", formatTime(getMessagesWaitTime())));
+        res.append(String.format("  reporting to JUnit listeners: %s", formatTime(getReportingTime())));
+        int slowest = 0;
+        for (int i = 1; i < EVENTS.length; i++) {
+            if (maxReportingTimes.get(i) > maxReportingTimes.get(slowest)) {
+                slowest = i;
+            }
+        }
+        if (maxReportingTimes.get(slowest) > 0) {
+            res.append(String.format(" (slowest event: %s, %s)", EVENTS[slowest],
+                    formatTime(maxReportingTimes.get(slowest) / NANOS_PER_MILLI)));
+        }
+        res.append(String.format("%n  browsers: %d, started in %s, busy %.0f%% of the time%n", getBrowsers(),
+                formatTime(getBrowsersStartupTime()), 100 * getBrowsersUtilization()));
+        res.append(String.format("  %d events (%.0f/s), queue max depth %d, reader blocked %d times", getEvents(),
+                getEventsPerSecond(), getMaxQueueDepth(), getReaderBlockedCount()));
+        return res.toString();
+    }
+
+    private static String formatTime(long millis) {
+        return String.format("%.1f s", millis / 1000.0);
+    }
+
+    public long getElapsedTime() {
+        if (startTime < 0) {
+            return 0;
+        }
+        return ((endTime < 0 ? System.nanoTime() : endTime) - startTime) / NANOS_PER_MILLI;
+    }
+
+    public long getAttesterStartupTime() {
+        return attesterStartupTime / NANOS_PER_MILLI;
+    }
+
+    public long getTasksListWaitTime() {
+        return tasksListWaitTime / NANOS_PER_MILLI;
+    }
+
+    public long getBrowsersStartupTime() {
+        return server != null ? server.getBrowserPool().getStartupTime() : 0;
+    }
+
+    public long getMessagesWaitTime() {
+        return messagesWaitTime / NANOS_PER_MILLI;
+    }
+
+    public long getReportingTime() {
+        return reportingTime / NANOS_PER_MILLI;
+    }
+
+    public long getReadTime() {
+        return server != null ? server.getMessagePump().getReadTimeMillis() : 0;
+    }
+
+    public long getEvents() {
+        long res = otherEvents;
+        for (int i = 0; i < EVENTS.length; i++) {
+            res += eventCounts.get(i);
+        }
+        return res;
+    }
+
+    public double getEventsPerSecond() {
+        long elapsed = getElapsedTime();
+        return elapsed > 0 ? getEvents() * 1000.0 / elapsed : 0;
+    }
+
+    public Map<String, Long> getEventCounts() {
+        return toMap(eventCounts, 1);
+    }
+
+    public Map<String, Long> getReportingTimes() {
+        return toMap(reportingTimes, NANOS_PER_MILLI);
+    }
+
+    public Map<String, Long> getMaxReportingTimes() {
+        return toMap(maxReportingTimes, NANOS_PER_MILLI);
+    }
+
+    private static Map<String, Long> toMap(AtomicLongArray values, long divisor) {
+        Map<String, Long> res = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < EVENTS.length; i++) {
+            res.put(EVENTS[i], values.get(i) / divisor);
+        }
+        return res;
+    }
+
+    public int getQueueDepth() {
+        return server != null ? server.getMessagePump().getQueueDepth() : 0;
+    }
+
+    public int getMaxQueueDepth() {
+        return server != null ? server.getMessagePump().getMaxQueueDepth() : 0;
+    }
+
+    public long getReaderBlockedCount() {
+        return server != null ? server.getMessagePump().getBlockedCount() : 0;
+    }
+
+    public int getBrowsers() {
+        return server != null ? server.getBrowserPool().getStartedBrowsers() : 0;
+    }
+
+    public int getRunningTasks() {
+        return runningTasks;
+    }
+
+    public long getFinishedTasks() {
+        return finishedTasks;
+    }
+
+    public long getTasksBusyTime() {
+        return tasksBusyTime / NANOS_PER_MILLI;
+    }
+
+    // part of the time during which the browsers were running tasks, since the campaign started
+    public double getBrowsersUtilization() {
+        long available = getBrowsers() * getElapsedTime();
+        return available > 0 ? Math.min(1, (double) getTasksBusyTime() / available) : 0;
+    }
+}
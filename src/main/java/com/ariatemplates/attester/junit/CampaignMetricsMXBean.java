@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.Map;
+
+// Times are in milliseconds.
+public interface CampaignMetricsMXBean {
+    long getElapsedTime();
+
+    long getAttesterStartupTime();
+
+    long getTasksListWaitTime();
+
+    long getBrowsersStartupTime();
+
+    long getMessagesWaitTime();
+
+    long getReportingTime();
+
+    long getReadTime();
+
+    long getEvents();
+
+    double getEventsPerSecond();
+
+    Map<String, Long> getEventCounts();
+
+    Map<String, Long> getReportingTimes();
+
+    Map<String, Long> getMaxReportingTimes();
+
+    int getQueueDepth();
+
+    int getMaxQueueDepth();
+
+    long getReaderBlockedCount();
+
+    int getBrowsers();
+
+    int getRunningTasks();
+
+    long getFinishedTasks();
+
+    long getTasksBusyTime();
+
+    double getBrowsersUtilization();
+}
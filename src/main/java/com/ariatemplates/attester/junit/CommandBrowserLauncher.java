@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Starts a browser with a command line, in which the placeholders are replaced for each browser.
+public class CommandBrowserLauncher extends BrowserLauncher {
+    // all the arguments given by attester for PhantomJS
+    public static final String ARGS = "{args}";
+    // the URL of the page which connects the browser to attester
+    public static final String URL = "{url}";
+    // a new empty directory, removed when the browser is stopped
+    public static final String PROFILE = "{profile}";
+
+    private static final String BROWSER_PATH_SYS_PROPERTY = "com.ariatemplates.attester.browser.%s.path";
+    private static final String NO_SLAVE_URL = "No URL to give to the %s browser in the command line given by attester: %s";
+    private static final String PROFILE_FAILED = "Failed to create a profile directory for the %s browser";
+
+    private final String name;
+    private final ExternalProcess executable;
+    private final String[] args;
+    private final Map<Process, File> profiles = new HashMap<Process, File>();
+
+    public CommandBrowserLauncher(String name, ExternalProcess executable, String... args) {
+        this.name = name;
+        this.executable = executable;
+        this.args = args;
+    }
+
+    // The first word of the command line is the executable, which can be replaced by setting
+    // com.ariatemplates.attester.browser.<name>.path.
+    public static CommandBrowserLauncher fromCommandLine(String name, String commandLine) {
+        String[] words = commandLine.trim().split("\\s+");
+        String[] args = new String[words.length - 1];
+        System.arraycopy(words, 1, args, 0, args.length);
+        return new CommandBrowserLauncher(name, new ExternalProcess(words[0], String.format(BROWSER_PATH_SYS_PROPERTY,
+                name)), args);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Process start(String[] phantomJSCmd) {
+        List<String> cmd = new ArrayList<String>();
+        File profile = null;
+        for (String arg : args) {
+            if (ARGS.equals(arg)) {
+                for (String phantomJSArg : phantomJSCmd) {
+                    cmd.add(phantomJSArg);
+                }
+                continue;
+            }
+            if (arg.contains(URL)) {
+                String url = getSlaveURL(phantomJSCmd);
+                if (url == null) {
+                    throw new IllegalStateException(String.format(NO_SLAVE_URL, name, Arrays.toString(phantomJSCmd)));
+                }
+                arg = arg.replace(URL, url);
+            }
+            if (arg.contains(PROFILE)) {
+                if (profile == null) {
+                    profile = createProfile();
+                }
+                arg = arg.replace(PROFILE, profile.getAbsolutePath());
+            }
+            cmd.add(arg);
+        }
+        Process process;
+        try {
+            process = executable.run(cmd.toArray(new String[] {}));
+        } catch (RuntimeException e) {
+            deleteProfile(profile);
+            throw e;
+        }
+        if (profile != null) {
+            synchronized (profiles) {
+                profiles.put(process, profile);
+            }
+        }
+        return process;
+    }
+
+    private File createProfile() {
+        try {
+            File res = File.createTempFile("attester-" + name + "-", "");
+            if (res.delete() && res.mkdir()) {
+                return res;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format(PROFILE_FAILED, name), e);
+        }
+        throw new IllegalStateException(String.format(PROFILE_FAILED, name));
+    }
+
+    @Override
+    public void stop(Collection<Process> processes) {
+        super.stop(processes);
+        for (Process process : processes) {
+            File profile;
+            synchronized (profiles) {
+                profile = profiles.remove(process);
+            }
+            deleteProfile(profile);
+        }
+    }
+
+    private static void deleteProfile(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteProfile(child);
+            }
+        }
+        file.delete();
+    }
+}
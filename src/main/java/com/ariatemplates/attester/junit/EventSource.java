@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where the messages of a campaign come from: an attester process, or a stand-in which does not need node, attester
+// or PhantomJS, to reproduce a campaign offline or to load the runner and its listeners.
+public abstract class EventSource {
+    public static final String EVENT_SOURCE_SYS_PROPERTY = "com.ariatemplates.attester.eventSource";
+    public static final String EVENT_RATE_SYS_PROPERTY = "com.ariatemplates.attester.eventRate";
+    public static final String SOURCE_ATTESTER = "attester";
+    public static final String SOURCE_REPLAY = "replay";
+    public static final String SOURCE_SYNTHETIC = "synthetic";
+
+    private static final String UNKNOWN_SOURCE = "Unknown value for the " + EVENT_SOURCE_SYS_PROPERTY
+        + " Java system property: %s";
+    private static final String INVALID_RATE = "Invalid value for the " + EVENT_RATE_SYS_PROPERTY
+        + " Java system property: %s";
+
+    // messages per second, 0 when they are given as fast as they are read
+    private long rate = 0;
+    private long startTime;
+    private long givenMessages = 0;
+
+    // The value of the system property is the name of the source, followed for the stand-ins by a colon and their
+    // parameters: the path of the log for replay, options for synthetic campaigns.
+    public static EventSource fromSystemProperties(String[] cmdLine) {
+        String value = System.getProperty(EVENT_SOURCE_SYS_PROPERTY, SOURCE_ATTESTER);
+        int colon = value.indexOf(':');
+        String name = colon > -1 ? value.substring(0, colon) : value;
+        String parameters = colon > -1 ? value.substring(colon + 1) : "";
+        EventSource res;
+        if (SOURCE_ATTESTER.equals(name)) {
+            return new AttesterProcess(cmdLine);
+        } else if (SOURCE_REPLAY.equals(name) && parameters.length() > 0) {
+            res = new ReplayEventSource(new File(parameters));
+        } else if (SOURCE_SYNTHETIC.equals(name)) {
+            SyntheticEventSource synthetic = SyntheticEventSource.fromOptions(parameters);
+            synthetic.setIncludes(getIncludes(cmdLine));
+            res = synthetic;
+        } else {
+            throw new IllegalArgumentException(String.format(UNKNOWN_SOURCE, value));
+        }
+        res.setRate(getRate());
+        return res;
+    }
+
+    // the tasks given on the command line with the includes option, or null if there is none
+    private static List<String> getIncludes(String[] cmdLine) {
+        String option = System.getProperty(Attester.INCLUDES_OPTION_SYS_PROPERTY, "");
+        if (option.length() == 0 || cmdLine == null) {
+            return null;
+        }
+        String prefix = option + "=";
+        List<String> res = new ArrayList<String>();
+        for (String arg : cmdLine) {
+            if (arg.startsWith(prefix)) {
+                res.add(arg.substring(prefix.length()));
+            }
+        }
+        return res.isEmpty() ? null : res;
+    }
+
+    private static long getRate() {
+        String value = System.getProperty(EVENT_RATE_SYS_PROPERTY);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            long res = Long.parseLong(value.trim());
+            if (res < 0) {
+                throw new NumberFormatException();
+            }
+            return res;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(INVALID_RATE, value), e);
+        }
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    // Waits so that messages are given at the configured rate, as when they come from a real campaign.
+    protected void throttle() {
+        if (givenMessages == 0) {
+            startTime = System.nanoTime();
+        }
+        givenMessages++;
+        if (rate <= 0) {
+            return;
+        }
+        long delay = startTime + givenMessages * 1000000000L / rate - System.nanoTime();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // the last lines logged by the source, or null if it does not log anything
+    public LogRing getLogRing() {
+        return null;
+    }
+
+    // Never returns null: an exception is thrown if there is no more message.
+    public abstract Message readMessage();
+
+    public abstract void stop();
+}
@@ -16,8 +16,18 @@
 package com.ariatemplates.attester.junit;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class ExternalProcess {
+    public static final String STOP_TIMEOUT_SYS_PROPERTY = "com.ariatemplates.attester.stopTimeout";
+    private static final long DEFAULT_STOP_TIMEOUT = 2;
+    private static final long POLL_INTERVAL = 50;
     private static final String START_FAILED = "Failed to start %s.\nThe following executable was used: %s\nYou can configure the path to the executable by setting the following Java system property: %s";
 
     private final String executableName;
@@ -41,6 +51,68 @@ public class ExternalProcess {
         }
     }
 
+    // Asks the processes, and the processes they started, to stop, then kills the ones which are still running after
+    // the timeout (com.ariatemplates.attester.stopTimeout seconds, for all the processes together). The processes
+    // started by them can only be found with Java 9 or later.
+    public static void terminate(Collection<Process> processes) {
+        long deadline = System.currentTimeMillis() + Long.getLong(STOP_TIMEOUT_SYS_PROPERTY, DEFAULT_STOP_TIMEOUT)
+                * 1000;
+        List<Object> descendants = new ArrayList<Object>();
+        for (Process process : processes) {
+            // to be done before the parent stops, as its children are then given to another process
+            descendants.addAll(getDescendants(process));
+            process.destroy();
+        }
+        for (Object descendant : descendants) {
+            invokeProcessHandle(descendant, "destroy");
+        }
+        try {
+            for (Process process : processes) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !process.waitFor(remaining, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            while (!descendants.isEmpty() && System.currentTimeMillis() < deadline) {
+                if (!Boolean.TRUE.equals(invokeProcessHandle(descendants.get(0), "isAlive"))) {
+                    descendants.remove(0);
+                } else {
+                    Thread.sleep(POLL_INTERVAL);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+        }
+        for (Object descendant : descendants) {
+            invokeProcessHandle(descendant, "destroyForcibly");
+        }
+    }
+
+    // ProcessHandle objects, through reflection as this code also runs with Java 8
+    private static List<Object> getDescendants(Process process) {
+        try {
+            Object handle = Process.class.getMethod("toHandle").invoke(process);
+            Stream<?> descendants = (Stream<?>) invokeProcessHandle(handle, "descendants");
+            return descendants != null ? Arrays.asList(descendants.toArray()) : Collections.emptyList();
+        } catch (Exception e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static Object invokeProcessHandle(Object handle, String method) {
+        try {
+            return Class.forName("java.lang.ProcessHandle").getMethod(method).invoke(handle);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     public static final ExternalProcess node = new ExternalProcess("node", "org.nodejs.node.path");
     public static final ExternalProcess phantomjs = new ExternalProcess("phantomjs", "com.google.code.phantomjs.path");
+    public static final ExternalProcess chromium = new ExternalProcess("chromium", "org.chromium.chromium.path");
+    public static final ExternalProcess firefox = new ExternalProcess("firefox", "org.mozilla.firefox.path");
+    public static final ExternalProcess mkfifo = new ExternalProcess("mkfifo", "com.ariatemplates.attester.mkfifo.path");
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Names of the tasks of a campaign which failed the last time they ran, stored in a text file with one name per line.
+public class FailedTasks {
+    public static final String FAILURES_DIR_SYS_PROPERTY = "com.ariatemplates.attester.failuresDir";
+    public static final String RERUN_FAILED_SYS_PROPERTY = "com.ariatemplates.attester.rerunFailed";
+    // only the tasks which failed are run
+    public static final String RERUN_ONLY = "only";
+    // the tasks which failed are run first, then the rest of the campaign if they all pass
+    public static final String RERUN_FIRST = "first";
+    private static final String INVALID_MODE = "Invalid value for " + RERUN_FAILED_SYS_PROPERTY
+            + ": %s (expected " + RERUN_ONLY + " or " + RERUN_FIRST + ")";
+    private static final String MISSING_FAILURES_DIR = "Warning: " + RERUN_FAILED_SYS_PROPERTY + " needs "
+            + FAILURES_DIR_SYS_PROPERTY + ", the whole campaign is run.";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Set<String> names = new TreeSet<String>();
+    private boolean modified = false;
+
+    public FailedTasks(File file) {
+        this.file = file;
+    }
+
+    // returns null if failures are not stored (when the system property is not set)
+    public static FailedTasks fromSystemProperties(String configFile) {
+        String directory = System.getProperty(FAILURES_DIR_SYS_PROPERTY, "");
+        if (directory.length() == 0) {
+            if (getRerunMode() != null) {
+                System.err.println(MISSING_FAILURES_DIR);
+            }
+            return null;
+        }
+        String configPath = new File(configFile).getAbsolutePath();
+        String fileName = new File(configPath).getName().replaceAll("[^._a-zA-Z0-9]+", "_") + "-"
+                + Integer.toHexString(configPath.hashCode()) + ".txt";
+        FailedTasks res = new FailedTasks(new File(directory, fileName));
+        res.load();
+        return res;
+    }
+
+    // returns null if failed tasks are not to be rerun
+    public static String getRerunMode() {
+        String mode = System.getProperty(RERUN_FAILED_SYS_PROPERTY);
+        if (mode == null || mode.length() == 0) {
+            return null;
+        }
+        if (!RERUN_ONLY.equals(mode) && !RERUN_FIRST.equals(mode)) {
+            throw new IllegalArgumentException(String.format(INVALID_MODE, mode));
+        }
+        return mode;
+    }
+
+    public synchronized void load() {
+        names.clear();
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), UTF8)) {
+                if (line.length() > 0) {
+                    names.add(line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read the failed tasks from " + file + ": " + e);
+        }
+    }
+
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new HashSet<String>(names));
+    }
+
+    public synchronized boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    public synchronized void taskFinished(String name, boolean failed) {
+        modified |= failed ? names.add(name) : names.remove(name);
+    }
+
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        modified = false;
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            directory.mkdirs();
+            StringBuilder content = new StringBuilder();
+            for (String name : names) {
+                content.append(name).append('\n');
+            }
+            File tempFile = File.createTempFile("failures", ".tmp", directory);
+            Files.write(tempFile.toPath(), content.toString().getBytes(UTF8));
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    tempFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write the failed tasks to " + file + ": " + e);
+        }
+    }
+}
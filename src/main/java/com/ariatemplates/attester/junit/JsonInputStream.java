@@ -15,33 +15,87 @@
 
 package com.ariatemplates.attester.junit;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 public class JsonInputStream {
 
+    public static final String ENCODING_JSON = "json";
+    // binary JSON (http://wiki.fasterxml.com/SmileFormat), starting with its ":)\n" header
+    public static final String ENCODING_SMILE = "smile";
+
+    private static final String UNEXPECTED_TOKEN = "Expected the beginning of a message, found ";
+    private static final String UNKNOWN_ENCODING = "Unknown encoding: %s";
+
     private static ObjectMapper objectMapper = new ObjectMapper();
     private static JsonFactory jsonFactory = objectMapper.getJsonFactory();
+    private static SmileFactory smileFactory = new SmileFactory(objectMapper);
     private JsonParser parser;
+    private InputStream inputStream;
+
+    // bytes are given directly to the parser, which decodes UTF-8 itself while tokenizing
+    public JsonInputStream(InputStream inputStream) {
+        this(inputStream, ENCODING_JSON);
+    }
+
+    public JsonInputStream(InputStream inputStream, String encoding) {
+        this.inputStream = inputStream;
+        parser = createParser(inputStream, encoding);
+    }
 
-    private static Reader createReader(InputStream inputStream) {
+    private static JsonParser createParser(InputStream inputStream, String encoding) {
         try {
-            return new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            if (ENCODING_JSON.equals(encoding)) {
+                return jsonFactory.createJsonParser(inputStream);
+            } else if (ENCODING_SMILE.equals(encoding)) {
+                return smileFactory.createJsonParser(inputStream);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        throw new IllegalArgumentException(String.format(UNKNOWN_ENCODING, encoding));
     }
 
-    public JsonInputStream(InputStream inputStream) {
-        this(createReader(inputStream));
+    public static boolean isSupportedEncoding(String encoding) {
+        return ENCODING_JSON.equals(encoding) || ENCODING_SMILE.equals(encoding);
+    }
+
+    // Reads the next messages with another encoding. The bytes already buffered by the current parser are given to
+    // the new one, except the white spaces which separate the messages.
+    public void switchEncoding(String encoding) {
+        if (inputStream == null) {
+            throw new IllegalStateException("The encoding can only be changed when reading bytes.");
+        }
+        try {
+            ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+            parser.releaseBuffered(buffered);
+            PushbackInputStream rest = new PushbackInputStream(new SequenceInputStream(new ByteArrayInputStream(
+                    buffered.toByteArray()), inputStream));
+            int b;
+            do {
+                b = rest.read();
+            } while (b == ' ' || b == '\n' || b == '\r' || b == '\t');
+            if (b > -1) {
+                rest.unread(b);
+            }
+            inputStream = rest;
+            parser = createParser(rest, encoding);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public JsonInputStream(Reader reader) {
@@ -60,6 +114,71 @@ public class JsonInputStream {
         }
     }
 
+    public Message readMessage() {
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(UNEXPECTED_TOKEN + token, parser.getCurrentLocation());
+            }
+            Message message = new Message();
+            boolean skip = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                token = parser.nextToken();
+                if (skip || token == JsonToken.VALUE_NULL) {
+                    parser.skipChildren();
+                } else if ("event".equals(field)) {
+                    message.event = readEventName();
+                    skip = (message.event == null);
+                } else if ("taskId".equals(field)) {
+                    message.taskId = parser.getValueAsInt(Message.NO_TASK_ID);
+                } else if ("tasks".equals(field)) {
+                    message.tasks = objectMapper.readValue(parser, TaskNode[].class);
+                } else if ("error".equals(field)) {
+                    message.error = objectMapper.readValue(parser, TestError.class);
+                } else if ("phantomJS".equals(field)) {
+                    message.phantomJS = objectMapper.readValue(parser, String[].class);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (skip) {
+                message.event = null;
+            }
+            return message;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // compares the characters in the parser buffer with the known events, so that no string is created
+    private String readEventName() throws IOException {
+        if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+            return null;
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (String event : Message.KNOWN_EVENTS) {
+            if (event.length() == length && matches(event, chars, offset)) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(String event, char[] chars, int offset) {
+        for (int i = event.length() - 1; i >= 0; i--) {
+            if (event.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static ObjectMapper getObjectMapper() {
         return objectMapper;
     }
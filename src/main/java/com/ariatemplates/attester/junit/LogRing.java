@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// The last lines written by a process, with the time at which they were read.
+public class LogRing {
+    private static final String EARLIER_LINES = "... %d earlier lines";
+
+    private final String name;
+    private final long[] times;
+    private final String[] lines;
+    private int first = 0;
+    private int count = 0;
+
+    public LogRing(String name, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        this.name = name;
+        times = new long[size];
+        lines = new String[size];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void add(long time, String line) {
+        int index = (first + count) % lines.length;
+        if (count < lines.length) {
+            count++;
+        } else {
+            first = (first + 1) % lines.length;
+        }
+        times[index] = time;
+        lines[index] = line;
+    }
+
+    // The last lines read since the given time (in milliseconds) by all the rings, oldest first, preceded by the
+    // number of lines which are not given if there are more than max.
+    public static List<String> getLastLines(Collection<LogRing> logRings, long since, int max) {
+        List<Long> times = new ArrayList<Long>();
+        List<String> lines = new ArrayList<String>();
+        for (LogRing logRing : logRings) {
+            logRing.getLines(since, times, lines);
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < lines.size(); i++) {
+            order.add(i);
+        }
+        final List<Long> sortTimes = times;
+        // the sort is stable, so the lines of each ring stay in their order
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer line1, Integer line2) {
+                return sortTimes.get(line1).compareTo(sortTimes.get(line2));
+            }
+        });
+        int skipped = Math.max(0, order.size() - max);
+        List<String> res = new ArrayList<String>(Math.min(order.size(), max) + 1);
+        if (skipped > 0) {
+            res.add(String.format(EARLIER_LINES, skipped));
+        }
+        for (int i = skipped; i < order.size(); i++) {
+            res.add(lines.get(order.get(i)));
+        }
+        return res;
+    }
+
+    private synchronized void getLines(long since, List<Long> resTimes, List<String> res) {
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) % lines.length;
+            if (times[index] >= since) {
+                resTimes.add(times[index]);
+                res.add(lines[index]);
+            }
+        }
+    }
+}
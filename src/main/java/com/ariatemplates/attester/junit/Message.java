@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+public class Message {
+    public static final int NO_TASK_ID = -1;
+
+    // only the events listed here are decoded, the others are skipped
+    public static final String[] KNOWN_EVENTS = { "tasksList", "campaignFinished", "testStarted", "testFinished",
+        "taskStarted", "taskFinished", "taskIgnored", "error", "serverAttached" };
+
+    public String event;
+    public int taskId = NO_TASK_ID;
+    public TaskNode[] tasks;
+    public TestError error;
+    public String[] phantomJS;
+}
@@ -15,14 +15,16 @@
 
 package com.ariatemplates.attester.junit;
 
-import java.util.Map;
-
 import org.junit.runner.Description;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 
+// Messages used to be given to handlers as JSON trees. They are now decoded into Message objects, whose fields hold
+// what handlers used to convert with treeToValue.
 public abstract class MessageHandler {
+    // messages are no longer given as JSON trees: use the fields of Message instead
+    @Deprecated
     static protected <T> T treeToValue(JsonNode node, Class<T> valueType) {
         if (node == null) {
             return null;
@@ -34,10 +36,9 @@ public abstract class MessageHandler {
         }
     }
 
-    public abstract void handleMessage(JsonNode message);
+    public abstract void handleMessage(Message message);
 
-    protected Description getCorrespondingTest(JsonNode message, Map<Integer, Description> tests) {
-        Integer id = message.get("taskId").asInt();
-        return tests.get(id);
+    protected Description getCorrespondingTest(Message message, TaskIndex tests) {
+        return tests.get(message.taskId);
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+public class MessagePump {
+    public static final String QUEUE_SIZE_SYS_PROPERTY = "com.ariatemplates.attester.queueSize";
+    public static final String BACKPRESSURE_SYS_PROPERTY = "com.ariatemplates.attester.backpressure";
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    public static enum Backpressure {
+        // the reader thread waits for the queue to have room again (memory stays bounded)
+        BLOCK,
+        // the queue grows beyond its size (the pipe is always read as fast as possible)
+        OVERFLOW
+    }
+
+    private final EventSource eventSource;
+    private final int queueSize;
+    private final Backpressure backpressure;
+    private final ArrayDeque<Message> queue = new ArrayDeque<Message>();
+    private RuntimeException readError;
+    private boolean ended = false;
+
+    private long receivedMessages = 0;
+    private int maxQueueDepth = 0;
+    private long blockedCount = 0;
+    private long blockedTime = 0;
+    private long overflowCount = 0;
+    // time spent waiting for and decoding messages from the source
+    private long readTime = 0;
+
+    public MessagePump(EventSource eventSource) {
+        this(eventSource, Integer.getInteger(QUEUE_SIZE_SYS_PROPERTY, DEFAULT_QUEUE_SIZE), Backpressure.valueOf(System
+                .getProperty(BACKPRESSURE_SYS_PROPERTY, Backpressure.BLOCK.name()).toUpperCase()));
+    }
+
+    public MessagePump(EventSource eventSource, int queueSize, Backpressure backpressure) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Invalid queue size: " + queueSize);
+        }
+        this.eventSource = eventSource;
+        this.queueSize = queueSize;
+        this.backpressure = backpressure;
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                pump();
+            }
+        }, "attester-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void pump() {
+        try {
+            Message message;
+            do {
+                long begin = System.nanoTime();
+                message = eventSource.readMessage();
+                put(message, System.nanoTime() - begin);
+            } while (!"campaignFinished".equals(message.event));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                readError = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                ended = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void put(Message message, long messageReadTime) throws InterruptedException {
+        readTime += messageReadTime;
+        if (queue.size() >= queueSize) {
+            if (backpressure == Backpressure.BLOCK) {
+                blockedCount++;
+                long begin = System.nanoTime();
+                while (queue.size() >= queueSize) {
+                    wait();
+                }
+                blockedTime += System.nanoTime() - begin;
+            } else {
+                overflowCount++;
+            }
+        }
+        queue.add(message);
+        receivedMessages++;
+        maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        notifyAll();
+    }
+
+    // Adds a message which does not come from the source, whether the queue is full or not.
+    public synchronized void inject(Message message) {
+        queue.add(message);
+        notifyAll();
+    }
+
+    // Waits for at least one message, then moves up to maxMessages messages into the given collection.
+    public synchronized void drainTo(Collection<Message> batch, int maxMessages) {
+        try {
+            while (queue.isEmpty()) {
+                if (ended) {
+                    throw readError != null ? readError : new IllegalStateException("No more message to read.");
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < maxMessages && !queue.isEmpty(); i++) {
+            batch.add(queue.poll());
+        }
+        notifyAll();
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public synchronized long getBlockedTimeMillis() {
+        return blockedTime / 1000000;
+    }
+
+    public synchronized long getReadTimeMillis() {
+        return readTime / 1000000;
+    }
+
+    public synchronized long getOverflowCount() {
+        return overflowCount;
+    }
+}
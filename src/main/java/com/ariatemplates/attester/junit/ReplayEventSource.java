@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Replays messages recorded from attester, for example with its --json-log-file option. Messages which are not events
+// (such as the first one, which describes attester) and the serverAttached event are skipped, as there is no server to
+// connect browsers to.
+public class ReplayEventSource extends EventSource {
+    private static final String UNEXPECTED_END = "The replayed log ended before the end of the campaign: %s";
+    private static final byte[] SMILE_HEADER = { ':', ')', '\n' };
+
+    private final File file;
+    private InputStream inputStream;
+    private JsonInputStream inputMessages;
+
+    public ReplayEventSource(File file) {
+        this.file = file;
+        try {
+            inputStream = new BufferedInputStream(new FileInputStream(file));
+            inputMessages = new JsonInputStream(inputStream, isSmile(inputStream) ? JsonInputStream.ENCODING_SMILE
+                    : JsonInputStream.ENCODING_JSON);
+        } catch (IOException e) {
+            stop();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isSmile(InputStream inputStream) throws IOException {
+        inputStream.mark(SMILE_HEADER.length);
+        try {
+            for (byte b : SMILE_HEADER) {
+                if (inputStream.read() != b) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    @Override
+    public synchronized Message readMessage() {
+        if (inputMessages == null) {
+            throw new IllegalStateException(String.format(UNEXPECTED_END, file));
+        }
+        Message message;
+        do {
+            message = inputMessages.readMessage();
+            if (message == null) {
+                stop();
+                throw new RuntimeException(String.format(UNEXPECTED_END, file));
+            }
+        } while (message.event == null || "serverAttached".equals(message.event));
+        throttle();
+        return message;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // nothing more to read anyway
+            }
+            inputStream = null;
+            inputMessages = null;
+        }
+    }
+}
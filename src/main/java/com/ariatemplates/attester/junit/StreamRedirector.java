@@ -15,29 +15,162 @@
 
 package com.ariatemplates.attester.junit;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-
-import org.apache.commons.io.IOUtils;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+// Copies the output of external processes, line by line, with the name of the process at the beginning of each line.
+// Each stream is read with blocking reads by a thread of a pool, whose threads are reused for the streams of the next
+// processes (for example browsers which are restarted). Processes which log a lot only lose lines instead of slowing
+// down the campaign when a rate is set.
 public class StreamRedirector {
+    public static final String LOG_DIR_SYS_PROPERTY = "com.ariatemplates.attester.logDir";
+    public static final String LOG_RATE_SYS_PROPERTY = "com.ariatemplates.attester.logRate";
+    public static final String LOG_RING_SIZE_SYS_PROPERTY = "com.ariatemplates.attester.logRingSize";
+    private static final int DEFAULT_LOG_RING_SIZE = 200;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    // external processes are expected to log in UTF-8, whatever the default charset of the JVM
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SKIPPED_LINES = "%s lines were not logged (more than %s lines per second)";
+    private static final String LOG_FILE_FAILED = "Failed to create the log file %s: %s";
+
+    // a stream which has nothing to read blocks its thread, so there is one thread for each stream being read
+    private static final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "attester-logs");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private StreamRedirector() {
         // not intended to be used as an object
     }
 
-    public static void redirectStream(final InputStream inputStream, final OutputStream outputStream) {
+    public static LogRing createLogRing(String name) {
+        return new LogRing(name, Integer.getInteger(LOG_RING_SIZE_SYS_PROPERTY, DEFAULT_LOG_RING_SIZE));
+    }
+
+    // The stream is read until it ends (when the process ends). Lines are also kept in logRing if it is not null.
+    public static void redirectStream(InputStream inputStream, PrintStream outputStream, String name, LogRing logRing) {
+        String logDir = System.getProperty(LOG_DIR_SYS_PROPERTY);
+        if (logDir != null && logDir.length() > 0) {
+            outputStream = openLogFile(new File(logDir, name.replaceAll("[^._a-zA-Z0-9-]+", "_") + ".log"),
+                    outputStream);
+        }
+        readers.execute(new Source(inputStream, outputStream, name, logRing, Integer.getInteger(LOG_RATE_SYS_PROPERTY,
+                0)));
+    }
+
+    private static PrintStream openLogFile(File file, PrintStream defaultStream) {
+        try {
+            file.getParentFile().mkdirs();
+            return new PrintStream(new FileOutputStream(file, true), true, UTF8.name());
+        } catch (IOException e) {
+            System.err.println(String.format(LOG_FILE_FAILED, file, e));
+            return defaultStream;
+        }
+    }
+
+    private static class Source implements Runnable {
+        private final InputStream inputStream;
+        private final PrintStream outputStream;
+        private final String prefix;
+        private final LogRing logRing;
+        private final int rate;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private long second = 0;
+        private int linesInSecond = 0;
+        private int skippedLines = 0;
+
+        public Source(InputStream inputStream, PrintStream outputStream, String name, LogRing logRing, int rate) {
+            this.inputStream = inputStream;
+            this.outputStream = outputStream;
+            this.logRing = logRing;
+            this.rate = rate;
+            prefix = "[" + name + "] ";
+        }
+
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                int length;
+                while ((length = inputStream.read(buffer)) >= 0) {
+                    addBytes(buffer, length);
+                }
+            } catch (IOException e) {
+                // the stream is closed when the process is stopped
+            } finally {
+                end();
+            }
+        }
+
+        private void addBytes(byte[] buffer, int length) {
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    line.write(buffer, start, i - start);
+                    flushLine();
+                    start = i + 1;
+                }
+            }
+            line.write(buffer, start, length - start);
+            if (line.size() > MAX_LINE_LENGTH) {
+                flushLine();
+            }
+        }
 
-        Thread thread = new Thread(new Runnable() {
-            public void run() {
-                try {
-                    IOUtils.copy(inputStream, outputStream);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        private void flushLine() {
+            String text = new String(line.toByteArray(), UTF8);
+            line.reset();
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            long time = System.currentTimeMillis();
+            if (logRing != null) {
+                logRing.add(time, prefix + text);
+            }
+            if (rate > 0) {
+                if (time / 1000 != second) {
+                    reportSkippedLines();
+                    second = time / 1000;
+                    linesInSecond = 0;
+                }
+                if (++linesInSecond > rate) {
+                    skippedLines++;
+                    return;
                 }
             }
-        });
-        thread.setDaemon(false);
-        thread.start();
+            outputStream.println(prefix + text);
+        }
+
+        private void reportSkippedLines() {
+            if (skippedLines > 0) {
+                outputStream.println(prefix + String.format(SKIPPED_LINES, skippedLines, rate));
+                skippedLines = 0;
+            }
+        }
+
+        private void end() {
+            if (line.size() > 0) {
+                flushLine();
+            }
+            reportSkippedLines();
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // nothing more to read anyway
+            }
+            if (outputStream != System.out && outputStream != System.err) {
+                outputStream.close();
+            }
+        }
     }
 }
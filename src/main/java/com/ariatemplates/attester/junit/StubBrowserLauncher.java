@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Browsers which do nothing but log what they were given and wait to be stopped, to check the pool and its
+// configuration without any browser installed, for example with the replay or synthetic event sources.
+public class StubBrowserLauncher extends BrowserLauncher {
+    private static final String STARTED = "Stub browser started for %s\n";
+
+    @Override
+    public String getName() {
+        return ENGINE_STUB;
+    }
+
+    @Override
+    public Process start(String[] phantomJSCmd) {
+        String url = getSlaveURL(phantomJSCmd);
+        return new StubProcess(String.format(STARTED, url != null ? url : Arrays.toString(phantomJSCmd)));
+    }
+
+    private static class StubProcess extends Process {
+        private final InputStream inputStream;
+        private boolean destroyed = false;
+
+        public StubProcess(String output) {
+            inputStream = new ByteArrayInputStream(output.getBytes());
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public synchronized int waitFor() throws InterruptedException {
+            while (!destroyed) {
+                wait();
+            }
+            return 0;
+        }
+
+        @Override
+        public synchronized int exitValue() {
+            if (!destroyed) {
+                throw new IllegalThreadStateException();
+            }
+            return 0;
+        }
+
+        @Override
+        public synchronized void destroy() {
+            destroyed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+
+// Forwards events to another notifier, one at a time, so that listeners which are not thread-safe can be used when
+// several campaigns are run concurrently.
+public class SynchronizedRunNotifier extends RunNotifier {
+    private final RunNotifier notifier;
+
+    public SynchronizedRunNotifier(RunNotifier notifier) {
+        this.notifier = notifier;
+    }
+
+    @Override
+    public void addListener(RunListener listener) {
+        synchronized (notifier) {
+            notifier.addListener(listener);
+        }
+    }
+
+    @Override
+    public void addFirstListener(RunListener listener) {
+        synchronized (notifier) {
+            notifier.addFirstListener(listener);
+        }
+    }
+
+    @Override
+    public void removeListener(RunListener listener) {
+        synchronized (notifier) {
+            notifier.removeListener(listener);
+        }
+    }
+
+    @Override
+    public void fireTestRunStarted(Description description) {
+        synchronized (notifier) {
+            notifier.fireTestRunStarted(description);
+        }
+    }
+
+    @Override
+    public void fireTestRunFinished(Result result) {
+        synchronized (notifier) {
+            notifier.fireTestRunFinished(result);
+        }
+    }
+
+    @Override
+    public void fireTestStarted(Description description) throws StoppedByUserException {
+        synchronized (notifier) {
+            notifier.fireTestStarted(description);
+        }
+    }
+
+    @Override
+    public void fireTestFailure(Failure failure) {
+        synchronized (notifier) {
+            notifier.fireTestFailure(failure);
+        }
+    }
+
+    @Override
+    public void fireTestAssumptionFailed(Failure failure) {
+        synchronized (notifier) {
+            notifier.fireTestAssumptionFailed(failure);
+        }
+    }
+
+    @Override
+    public void fireTestIgnored(Description description) {
+        synchronized (notifier) {
+            notifier.fireTestIgnored(description);
+        }
+    }
+
+    @Override
+    public void fireTestFinished(Description description) {
+        synchronized (notifier) {
+            notifier.fireTestFinished(description);
+        }
+    }
+
+    @Override
+    public void pleaseStop() {
+        synchronized (notifier) {
+            notifier.pleaseStop();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+
+// Generates the messages of a campaign without running anything: a tasks list of the given number of tasks (in groups
+// of 100), then the tasks run by the given number of browsers, some of them failing. Messages are created when they
+// are read, so that campaigns with millions of events do not need to be kept in memory. The same options always give
+// the same campaign. As attester, it can be given the names of the tasks to run instead.
+public class SyntheticEventSource extends EventSource {
+    private static final int GROUP_SIZE = 100;
+    private static final String INVALID_OPTION = "Invalid option for synthetic campaigns: %s";
+
+    private final int tasks;
+    private final int browsers;
+    private final double failureRate;
+    private final int stackDepth;
+    private final Random random = new Random(0);
+    // names of the tasks to run, in this order, or null to run all the tasks
+    private List<String> includes;
+
+    private boolean tasksListSent = false;
+    private boolean campaignFinishedSent = false;
+    private int nextTask = 0;
+    // tasks being run, in the order in which they finish
+    private final ArrayDeque<Integer> runningTasks = new ArrayDeque<Integer>();
+    private Message pendingMessage;
+
+    public SyntheticEventSource(int tasks, int browsers, double failureRate, int stackDepth) {
+        if (tasks < 0 || browsers < 1 || failureRate < 0 || failureRate > 1 || stackDepth < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.tasks = tasks;
+        this.browsers = browsers;
+        this.failureRate = failureRate;
+        this.stackDepth = stackDepth;
+    }
+
+    // options separated by commas, for example: tasks=10000,browsers=4,failureRate=0.05,stackDepth=20
+    public static SyntheticEventSource fromOptions(String options) {
+        int tasks = 1000;
+        int browsers = 1;
+        double failureRate = 0;
+        int stackDepth = 10;
+        for (String option : options.split(",")) {
+            option = option.trim();
+            if (option.length() == 0) {
+                continue;
+            }
+            int equals = option.indexOf('=');
+            String name = equals > -1 ? option.substring(0, equals).trim() : option;
+            String value = equals > -1 ? option.substring(equals + 1).trim() : "";
+            try {
+                if ("tasks".equals(name)) {
+                    tasks = Integer.parseInt(value);
+                } else if ("browsers".equals(name)) {
+                    browsers = Integer.parseInt(value);
+                } else if ("failureRate".equals(name)) {
+                    failureRate = Double.parseDouble(value);
+                } else if ("stackDepth".equals(name)) {
+                    stackDepth = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException(String.format(INVALID_OPTION, option));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(INVALID_OPTION, option), e);
+            }
+        }
+        try {
+            return new SyntheticEventSource(tasks, browsers, failureRate, stackDepth);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(INVALID_OPTION, options), e);
+        }
+    }
+
+    public synchronized void setIncludes(List<String> includes) {
+        this.includes = includes;
+    }
+
+    @Override
+    public synchronized Message readMessage() {
+        Message message = nextMessage();
+        throttle();
+        return message;
+    }
+
+    private Message nextMessage() {
+        if (!tasksListSent) {
+            tasksListSent = true;
+            Message message = createMessage("tasksList", Message.NO_TASK_ID);
+            message.tasks = createTasksList();
+            return message;
+        }
+        if (pendingMessage != null) {
+            Message message = pendingMessage;
+            pendingMessage = null;
+            return message;
+        }
+        if (runningTasks.size() < browsers && nextTask < getTasksCount()) {
+            runningTasks.add(nextTask);
+            return createMessage("taskStarted", nextTask++);
+        }
+        if (!runningTasks.isEmpty()) {
+            int taskId = runningTasks.poll();
+            Message taskFinished = createMessage("taskFinished", taskId);
+            if (random.nextDouble() < failureRate) {
+                pendingMessage = taskFinished;
+                Message error = createMessage("error", taskId);
+                error.error = createError(taskId);
+                return error;
+            }
+            return taskFinished;
+        }
+        if (!campaignFinishedSent) {
+            campaignFinishedSent = true;
+            return createMessage("campaignFinished", Message.NO_TASK_ID);
+        }
+        throw new IllegalStateException("No more message in the synthetic campaign.");
+    }
+
+    private static Message createMessage(String event, int taskId) {
+        Message message = new Message();
+        message.event = event;
+        message.taskId = taskId;
+        return message;
+    }
+
+    private int getTasksCount() {
+        return includes != null ? includes.size() : tasks;
+    }
+
+    private TaskNode[] createTasksList() {
+        if (includes != null) {
+            TaskNode[] res = new TaskNode[includes.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = new TaskNode();
+                res[i].taskId = i;
+                res[i].name = includes.get(i);
+            }
+            return res;
+        }
+        TaskNode[] groups = new TaskNode[(tasks + GROUP_SIZE - 1) / GROUP_SIZE];
+        for (int i = 0; i < groups.length; i++) {
+            TaskNode group = new TaskNode();
+            group.name = "synthetic.group" + i;
+            group.subTasks = new TaskNode[Math.min(GROUP_SIZE, tasks - i * GROUP_SIZE)];
+            for (int j = 0; j < group.subTasks.length; j++) {
+                TaskNode task = new TaskNode();
+                task.taskId = i * GROUP_SIZE + j;
+                task.name = "synthetic.group" + i + ".Test" + j;
+                group.subTasks[j] = task;
+            }
+            groups[i] = group;
+        }
+        return groups;
+    }
+
+    private TestError createError(int taskId) {
+        TestError error = new TestError();
+        error.message = "Synthetic failure in task " + taskId;
+        error.failure = true;
+        error.stack = new TestErrorStackElement[stackDepth];
+        for (int i = 0; i < stackDepth; i++) {
+            TestErrorStackElement element = new TestErrorStackElement();
+            element.className = "synthetic.Test" + (taskId % GROUP_SIZE);
+            element.function = "testMethod" + i;
+            element.file = "synthetic/Test" + (taskId % GROUP_SIZE) + ".js";
+            element.line = 10 + i;
+            error.stack[i] = element;
+        }
+        return error;
+    }
+
+    @Override
+    public void stop() {
+        // nothing is running
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Durations of the previous runs of each task, stored in a text file with one "name<TAB>milliseconds" line per run.
+// New durations are appended to the file, which is compacted to one line per task when it becomes too big. The file
+// is locked while it is read or written, so that several JVMs can use it at the same time. As a file lock is held by
+// the whole JVM, the campaigns of the same JVM also take a lock of their own for each file.
+public class TaskDurations {
+    public static final String DURATIONS_FILE_SYS_PROPERTY = "com.ariatemplates.attester.durationsFile";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int COMPACT_THRESHOLD = 1000;
+    private static final Map<String, Object> fileLocks = new HashMap<String, Object>();
+
+    private final File file;
+    private final Map<String, Long> durations = new HashMap<String, Long>();
+    private final List<String> newLines = new ArrayList<String>();
+    private int fileLines = 0;
+
+    public TaskDurations(File file) {
+        this.file = file;
+    }
+
+    // the same object for all the instances which use the same file
+    private static Object getFileLock(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        synchronized (fileLocks) {
+            Object res = fileLocks.get(path);
+            if (res == null) {
+                res = new Object();
+                fileLocks.put(path, res);
+            }
+            return res;
+        }
+    }
+
+    // returns null if durations are not stored (when the system property is not set)
+    public static TaskDurations fromSystemProperties() {
+        String path = System.getProperty(DURATIONS_FILE_SYS_PROPERTY, "");
+        if (path.length() == 0) {
+            return null;
+        }
+        TaskDurations res = new TaskDurations(new File(path));
+        res.load();
+        return res;
+    }
+
+    public synchronized void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            synchronized (getFileLock(file)) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                try {
+                    FileChannel channel = randomAccessFile.getChannel();
+                    FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+                    try {
+                        read(channel);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    randomAccessFile.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read task durations from " + file + ": " + e);
+        } catch (OverlappingFileLockException e) {
+            // locked through another channel of this JVM, which does not use this class
+            System.err.println("Failed to read task durations from " + file + ": " + e);
+        }
+    }
+
+    private void read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        String content = new String(buffer.array(), 0, buffer.position(), UTF8);
+        durations.clear();
+        fileLines = 0;
+        int lineStart = 0;
+        int lineEnd;
+        while ((lineEnd = content.indexOf('\n', lineStart)) > -1) {
+            int separator = content.lastIndexOf('\t', lineEnd);
+            if (separator > lineStart) {
+                try {
+                    put(content.substring(lineStart, separator), Long.parseLong(content.substring(separator + 1,
+                            lineEnd)));
+                    fileLines++;
+                } catch (NumberFormatException e) {
+                    // ignore lines which were not completely written
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    // the stored duration is an average which gives more weight to recent runs
+    private void put(String name, long duration) {
+        Long previousDuration = durations.get(name);
+        durations.put(name, previousDuration == null ? duration : (previousDuration + duration) / 2);
+    }
+
+    // returns -1 if the task never ran
+    public synchronized long get(String name) {
+        Long res = durations.get(name);
+        return res == null ? -1 : res;
+    }
+
+    public synchronized void record(String name, long duration) {
+        newLines.add(name + "\t" + duration + "\n");
+        put(name, duration);
+    }
+
+    public synchronized void save() {
+        if (newLines.isEmpty()) {
+            return;
+        }
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            synchronized (getFileLock(file)) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try {
+                    FileChannel channel = randomAccessFile.getChannel();
+                    FileLock lock = channel.lock();
+                    try {
+                        write(channel);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    randomAccessFile.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write task durations to " + file + ": " + e);
+        } catch (OverlappingFileLockException e) {
+            // locked through another channel of this JVM, which does not use this class
+            System.err.println("Failed to write task durations to " + file + ": " + e);
+        }
+    }
+
+    private void write(FileChannel channel) throws IOException {
+        // other JVMs may have written durations since the file was loaded
+        read(channel);
+        StringBuilder content = new StringBuilder();
+        for (String line : newLines) {
+            content.append(line);
+            int separator = line.lastIndexOf('\t');
+            put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1, line.length() - 1)));
+        }
+        newLines.clear();
+        long position = channel.size();
+        if (fileLines > COMPACT_THRESHOLD && fileLines > 2 * durations.size()) {
+            content.setLength(0);
+            for (Map.Entry<String, Long> duration : durations.entrySet()) {
+                content.append(duration.getKey()).append('\t').append(duration.getValue()).append('\n');
+            }
+            channel.truncate(0);
+            position = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(UTF8));
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
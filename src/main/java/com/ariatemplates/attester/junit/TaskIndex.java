@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.Arrays;
+
+import org.junit.runner.Description;
+
+// The tests of a campaign and the state of their tasks, in arrays indexed by task id, as attester gives small
+// consecutive ids to its tasks. The state is used to detect events which are duplicated or out of order.
+public class TaskIndex {
+    public static enum State {
+        PENDING, RUNNING, FINISHED
+    }
+
+    private static final String INVALID_TASK_ID = "Invalid task id: %d";
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Description[] tests = new Description[INITIAL_CAPACITY];
+    private State[] states = new State[INITIAL_CAPACITY];
+    private boolean[] failed = new boolean[INITIAL_CAPACITY];
+    private long[] startTimes = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private void ensureCapacity(int taskId) {
+        if (taskId < tests.length) {
+            return;
+        }
+        int capacity = Math.max(taskId + 1, 2 * tests.length);
+        tests = Arrays.copyOf(tests, capacity);
+        states = Arrays.copyOf(states, capacity);
+        failed = Arrays.copyOf(failed, capacity);
+        startTimes = Arrays.copyOf(startTimes, capacity);
+    }
+
+    public Description put(int taskId, Description test) {
+        if (taskId < 0) {
+            throw new IllegalArgumentException(String.format(INVALID_TASK_ID, taskId));
+        }
+        ensureCapacity(taskId);
+        Description res = tests[taskId];
+        tests[taskId] = test;
+        states[taskId] = State.PENDING;
+        failed[taskId] = false;
+        if (res == null) {
+            size++;
+        }
+        return res;
+    }
+
+    public Description get(int taskId) {
+        return contains(taskId) ? tests[taskId] : null;
+    }
+
+    public boolean contains(int taskId) {
+        return taskId >= 0 && taskId < tests.length && tests[taskId] != null;
+    }
+
+    public Description remove(int taskId) {
+        if (!contains(taskId)) {
+            return null;
+        }
+        Description res = tests[taskId];
+        tests[taskId] = null;
+        states[taskId] = null;
+        size--;
+        return res;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // in increasing order
+    public int[] getTaskIds() {
+        int[] res = new int[size];
+        int index = 0;
+        for (int i = 0; index < size; i++) {
+            if (tests[i] != null) {
+                res[index++] = i;
+            }
+        }
+        return res;
+    }
+
+    public State getState(int taskId) {
+        return contains(taskId) ? states[taskId] : null;
+    }
+
+    public boolean isFinished(int taskId) {
+        return getState(taskId) == State.FINISHED;
+    }
+
+    public boolean isFailed(int taskId) {
+        return contains(taskId) && failed[taskId];
+    }
+
+    // The following methods return false if the event is not expected in the current state of the task (which is
+    // changed anyway), or if the task is unknown.
+
+    public boolean taskStarted(int taskId, long time) {
+        if (!contains(taskId)) {
+            return false;
+        }
+        boolean res = states[taskId] == State.PENDING;
+        states[taskId] = State.RUNNING;
+        startTimes[taskId] = time;
+        return res;
+    }
+
+    public boolean taskFailed(int taskId) {
+        if (!contains(taskId)) {
+            return false;
+        }
+        failed[taskId] = true;
+        return states[taskId] == State.RUNNING;
+    }
+
+    public boolean taskFinished(int taskId) {
+        if (!contains(taskId)) {
+            return false;
+        }
+        boolean res = states[taskId] == State.RUNNING;
+        states[taskId] = State.FINISHED;
+        return res;
+    }
+
+    public boolean taskIgnored(int taskId) {
+        if (!contains(taskId)) {
+            return false;
+        }
+        boolean res = states[taskId] == State.PENDING;
+        states[taskId] = State.FINISHED;
+        return res;
+    }
+
+    // time given when the task started, or -1 if it is not running
+    public long getStartTime(int taskId) {
+        return getState(taskId) == State.RUNNING ? startTimes[taskId] : -1;
+    }
+}
@@ -17,6 +17,7 @@ package com.ariatemplates.attester.junit;
 
 import java.util.regex.Pattern;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -27,13 +28,30 @@ public class TaskNode {
 
     private static final Pattern specialChars = Pattern.compile("[^._a-zA-Z0-9]+");
 
+    private String filteredName;
+
+    // computed once, and without the regular expression when the name has no special character
+    @JsonIgnore
     public String getFilteredName() {
-        String res = name;
-        if (res != null) {
-            res = specialChars.matcher(res).replaceAll("_");
-        } else {
-            res = "Unknown_test";
+        if (filteredName == null) {
+            if (name == null) {
+                filteredName = "Unknown_test";
+            } else if (hasSpecialChars(name)) {
+                filteredName = specialChars.matcher(name).replaceAll("_");
+            } else {
+                filteredName = name;
+            }
+        }
+        return filteredName;
+    }
+
+    private static boolean hasSpecialChars(String name) {
+        for (int i = 0, l = name.length(); i < l; i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '_')) {
+                return true;
+            }
         }
-        return res;
+        return false;
     }
 }
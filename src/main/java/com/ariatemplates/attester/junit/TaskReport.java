@@ -0,0 +1,381 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+// Results of a campaign written to disk as they are reported, in the JUnit XML format and as one JSON object per line,
+// so that reports do not depend on the memory of the JUnit listeners and survive if the run is killed. Only the
+// failures of the running tasks are kept in memory. The closing tag of the XML report is rewritten after each task,
+// so that the file is always well-formed, and its counters are updated at most once per second.
+public class TaskReport {
+    public static final String REPORT_DIR_SYS_PROPERTY = "com.ariatemplates.attester.reportDir";
+    public static final String REPORT_FORMATS_SYS_PROPERTY = "com.ariatemplates.attester.reportFormats";
+    public static final String FORMAT_XML = "xml";
+    public static final String FORMAT_NDJSON = "ndjson";
+    private static final String INVALID_FORMAT = "Invalid value for the " + REPORT_FORMATS_SYS_PROPERTY
+        + " Java system property: %s (expected " + FORMAT_XML + " and/or " + FORMAT_NDJSON + ")";
+    private static final String WRITE_FAILED = "Failed to write the report %s: %s";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+    private static final String XML_FOOTER = "</testsuite>\n";
+    // the counters of the testsuite element are padded to this length, so that they can be rewritten in place
+    private static final int XML_COUNTERS_LENGTH = 128;
+    private static final long XML_COUNTERS_INTERVAL = 1000;
+
+    private final String name;
+    private final File xmlFile;
+    private final File ndjsonFile;
+    private RandomAccessFile xmlOutput;
+    private long xmlCountersPosition;
+    private long xmlCountersTime;
+    private OutputStream ndjsonOutput;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final Map<Description, List<Failure>> runningTests = new IdentityHashMap<Description, List<Failure>>();
+    private long startTime;
+    private int tests = 0;
+    private int failures = 0;
+    private int errors = 0;
+    private int skipped = 0;
+
+    public TaskReport(String name, File xmlFile, File ndjsonFile) {
+        this.name = name;
+        this.xmlFile = xmlFile;
+        this.ndjsonFile = ndjsonFile;
+    }
+
+    // returns null if no report is written (when the system property is not set or is an empty string)
+    public static TaskReport fromSystemProperties(String name) {
+        String directory = System.getProperty(REPORT_DIR_SYS_PROPERTY);
+        if (directory == null || directory.length() == 0) {
+            return null;
+        }
+        String formats = System.getProperty(REPORT_FORMATS_SYS_PROPERTY, FORMAT_XML + "," + FORMAT_NDJSON);
+        String fileName = name.replaceAll("[^._a-zA-Z0-9-]+", "_");
+        File xmlFile = null;
+        File ndjsonFile = null;
+        for (String format : formats.split(",")) {
+            format = format.trim();
+            if (FORMAT_XML.equals(format)) {
+                xmlFile = new File(directory, "TEST-" + fileName + ".xml");
+            } else if (FORMAT_NDJSON.equals(format)) {
+                ndjsonFile = new File(directory, fileName + ".ndjson");
+            } else if (format.length() > 0) {
+                throw new IllegalArgumentException(String.format(INVALID_FORMAT, formats));
+            }
+        }
+        if (xmlFile == null && ndjsonFile == null) {
+            throw new IllegalArgumentException(String.format(INVALID_FORMAT, formats));
+        }
+        return new TaskReport(name, xmlFile, ndjsonFile);
+    }
+
+    public synchronized void open() {
+        startTime = System.currentTimeMillis();
+        tests = failures = errors = skipped = 0;
+        runningTests.clear();
+        if (xmlFile != null) {
+            try {
+                xmlFile.getAbsoluteFile().getParentFile().mkdirs();
+                xmlOutput = new RandomAccessFile(xmlFile, "rw");
+                xmlOutput.setLength(0);
+                StringBuilder header = new StringBuilder(XML_HEADER);
+                header.append("<testsuite name=\"");
+                appendEscaped(header, name, true);
+                header.append("\" ");
+                xmlOutput.write(header.toString().getBytes(UTF8));
+                xmlCountersPosition = xmlOutput.getFilePointer();
+                xmlOutput.write((getXmlCounters() + ">\n" + XML_FOOTER).getBytes(UTF8));
+                xmlOutput.seek(xmlOutput.getFilePointer() - XML_FOOTER.length());
+            } catch (IOException e) {
+                xmlOutput = closeXml(e);
+            }
+        }
+        if (ndjsonFile != null) {
+            try {
+                ndjsonFile.getAbsoluteFile().getParentFile().mkdirs();
+                ndjsonOutput = new FileOutputStream(ndjsonFile);
+            } catch (IOException e) {
+                ndjsonOutput = closeNdjson(e);
+            }
+        }
+    }
+
+    public synchronized void testFailure(Description test, Throwable exception) {
+        List<Failure> testFailures = runningTests.get(test);
+        if (testFailures == null) {
+            testFailures = new ArrayList<Failure>();
+            runningTests.put(test, testFailures);
+        }
+        testFailures.add(new Failure(exception));
+    }
+
+    // duration is in milliseconds, or -1 if it is not known
+    public synchronized void testFinished(Description test, long duration) {
+        List<Failure> testFailures = runningTests.remove(test);
+        tests++;
+        String status = "passed";
+        if (testFailures != null) {
+            status = "failed";
+            for (Failure failure : testFailures) {
+                if (failure.isFailure) {
+                    failures++;
+                } else {
+                    errors++;
+                }
+            }
+        }
+        writeTest(test, status, Math.max(duration, 0), testFailures);
+    }
+
+    public synchronized void testIgnored(Description test) {
+        tests++;
+        skipped++;
+        writeTest(test, "ignored", 0, null);
+    }
+
+    public synchronized void close() {
+        if (xmlOutput != null) {
+            try {
+                writeXmlCounters();
+                xmlOutput.close();
+            } catch (IOException e) {
+                System.err.println(String.format(WRITE_FAILED, xmlFile, e));
+            }
+            xmlOutput = null;
+        }
+        if (ndjsonOutput != null) {
+            try {
+                ndjsonOutput.close();
+            } catch (IOException e) {
+                System.err.println(String.format(WRITE_FAILED, ndjsonFile, e));
+            }
+            ndjsonOutput = null;
+        }
+    }
+
+    private void writeTest(Description test, String status, long duration, List<Failure> testFailures) {
+        if (xmlOutput != null) {
+            try {
+                writeXmlTest(test, status, duration, testFailures);
+            } catch (IOException e) {
+                xmlOutput = closeXml(e);
+            }
+        }
+        if (ndjsonOutput != null) {
+            try {
+                writeJsonTest(test, status, duration, testFailures);
+            } catch (IOException e) {
+                ndjsonOutput = closeNdjson(e);
+            }
+        }
+    }
+
+    private void writeXmlTest(Description test, String status, long duration, List<Failure> testFailures)
+            throws IOException {
+        StringBuilder res = new StringBuilder();
+        res.append("  <testcase name=\"");
+        appendEscaped(res, test.getDisplayName(), true);
+        res.append("\" classname=\"");
+        appendEscaped(res, name, true);
+        res.append("\" time=\"").append(formatSeconds(duration)).append("\"");
+        if ("ignored".equals(status)) {
+            res.append(">\n    <skipped/>\n  </testcase>\n");
+        } else if (testFailures != null) {
+            res.append(">\n");
+            for (Failure failure : testFailures) {
+                String element = failure.isFailure ? "failure" : "error";
+                res.append("    <").append(element).append(" message=\"");
+                appendEscaped(res, failure.message, true);
+                res.append("\" type=\"");
+                appendEscaped(res, failure.type, true);
+                res.append("\">");
+                appendEscaped(res, failure.getStack(), false);
+                res.append("</").append(element).append(">\n");
+            }
+            res.append("  </testcase>\n");
+        } else {
+            res.append("/>\n");
+        }
+        res.append(XML_FOOTER);
+        // the test and the closing tag are written at once, and the closing tag is overwritten by the next test
+        xmlOutput.write(res.toString().getBytes(UTF8));
+        xmlOutput.seek(xmlOutput.getFilePointer() - XML_FOOTER.length());
+        if (System.currentTimeMillis() - xmlCountersTime >= XML_COUNTERS_INTERVAL) {
+            writeXmlCounters();
+        }
+    }
+
+    private void writeXmlCounters() throws IOException {
+        long position = xmlOutput.getFilePointer();
+        xmlOutput.seek(xmlCountersPosition);
+        xmlOutput.write(getXmlCounters().getBytes(UTF8));
+        xmlOutput.seek(position);
+        xmlCountersTime = System.currentTimeMillis();
+    }
+
+    private String getXmlCounters() {
+        StringBuilder res = new StringBuilder();
+        res.append("tests=\"").append(tests).append("\" failures=\"").append(failures).append("\" errors=\"")
+                .append(errors).append("\" skipped=\"").append(skipped).append("\" time=\"")
+                .append(formatSeconds(System.currentTimeMillis() - startTime)).append("\"");
+        while (res.length() < XML_COUNTERS_LENGTH) {
+            res.append(' ');
+        }
+        return res.toString();
+    }
+
+    private void writeJsonTest(Description test, String status, long duration, List<Failure> testFailures)
+            throws IOException {
+        buffer.reset();
+        JsonGenerator generator = jsonFactory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeStringField("suite", name);
+        generator.writeStringField("name", test.getDisplayName());
+        generator.writeStringField("status", status);
+        generator.writeNumberField("time", duration);
+        if (testFailures != null) {
+            generator.writeArrayFieldStart("failures");
+            for (Failure failure : testFailures) {
+                generator.writeStartObject();
+                generator.writeBooleanField("failure", failure.isFailure);
+                generator.writeStringField("message", failure.message);
+                generator.writeStringField("type", failure.type);
+                generator.writeStringField("stack", failure.getStack());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.close();
+        buffer.write('\n');
+        // one write per line, so that a killed run only loses the line being written
+        buffer.writeTo(ndjsonOutput);
+        ndjsonOutput.flush();
+    }
+
+    private RandomAccessFile closeXml(IOException e) {
+        System.err.println(String.format(WRITE_FAILED, xmlFile, e));
+        try {
+            if (xmlOutput != null) {
+                xmlOutput.close();
+            }
+        } catch (IOException closeException) {
+            // already reported
+        }
+        return null;
+    }
+
+    private OutputStream closeNdjson(IOException e) {
+        System.err.println(String.format(WRITE_FAILED, ndjsonFile, e));
+        try {
+            if (ndjsonOutput != null) {
+                ndjsonOutput.close();
+            }
+        } catch (IOException closeException) {
+            // already reported
+        }
+        return null;
+    }
+
+    private static String formatSeconds(long milliseconds) {
+        return String.format("%d.%03d", milliseconds / 1000, milliseconds % 1000);
+    }
+
+    // characters which are not allowed in XML 1.0 are replaced by question marks, line breaks are only kept in text
+    private static void appendEscaped(StringBuilder res, String text, boolean attribute) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<':
+                res.append("&lt;");
+                break;
+            case '>':
+                res.append("&gt;");
+                break;
+            case '&':
+                res.append("&amp;");
+                break;
+            case '"':
+                res.append("&quot;");
+                break;
+            case '\n':
+            case '\r':
+            case '\t':
+                if (attribute) {
+                    res.append("&#").append((int) c).append(';');
+                } else {
+                    res.append(c);
+                }
+                break;
+            default:
+                res.append(c < 0x20 || c == 0xfffe || c == 0xffff ? '?' : c);
+            }
+        }
+    }
+
+    // The stack is only printed when the test is written, as the exception may convert it lazily.
+    private static class Failure {
+        private final boolean isFailure;
+        private final String message;
+        private final String type;
+        private final Throwable exception;
+        private String stack;
+
+        public Failure(Throwable exception) {
+            isFailure = exception instanceof AssertionError;
+            // the exceptions created from attester errors only give their message in toString, which also contains
+            // the output captured for the test
+            String text = exception.getMessage() != null ? exception.getMessage() : exception.toString();
+            int lineEnd = text != null ? text.indexOf('\n') : -1;
+            message = lineEnd > -1 ? text.substring(0, lineEnd) : text;
+            type = exception.getClass().getName();
+            this.exception = exception;
+        }
+
+        // printed once for all the formats
+        public String getStack() {
+            if (stack == null) {
+                StringWriter stackWriter = new StringWriter();
+                exception.printStackTrace(new PrintWriter(stackWriter));
+                stack = stackWriter.toString();
+            }
+            return stack;
+        }
+    }
+}
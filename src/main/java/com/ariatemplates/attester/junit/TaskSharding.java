@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.runner.Description;
+
+public class TaskSharding {
+    public static final String SHARD_INDEX_SYS_PROPERTY = "com.ariatemplates.attester.shardIndex";
+    public static final String SHARD_COUNT_SYS_PROPERTY = "com.ariatemplates.attester.shardCount";
+    public static final String SHARD_BY_DURATIONS_SYS_PROPERTY = "com.ariatemplates.attester.shardByDurations";
+    private static final String INVALID_SHARD = "Invalid shard: %s (index) / %s (count). The index must be between 0 and count - 1.";
+
+    private final int shardIndex;
+    private final int shardCount;
+    private boolean byDurations = false;
+
+    public TaskSharding(int shardIndex, int shardCount) {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException(String.format(INVALID_SHARD, shardIndex, shardCount));
+        }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+    }
+
+    public static TaskSharding fromSystemProperties() {
+        String shardIndex = System.getProperty(SHARD_INDEX_SYS_PROPERTY);
+        String shardCount = System.getProperty(SHARD_COUNT_SYS_PROPERTY);
+        if (shardIndex == null && shardCount == null) {
+            return null;
+        }
+        try {
+            TaskSharding res = new TaskSharding(Integer.parseInt(shardIndex.trim()), Integer.parseInt(shardCount.trim()));
+            res.byDurations = Boolean.getBoolean(SHARD_BY_DURATIONS_SYS_PROPERTY);
+            return res;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(String.format(INVALID_SHARD, shardIndex, shardCount), e);
+        }
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // Balancing shards with durations is only deterministic if all the shards use the same durations file.
+    public boolean isByDurations() {
+        return byDurations;
+    }
+
+    public void setByDurations(boolean byDurations) {
+        this.byDurations = byDurations;
+    }
+
+    // Tests are sorted by name and dealt to the shards in turn, so that every shard computes the same partition
+    // from the same tasks list, whatever the task ids.
+    public Set<Description> selectTests(Collection<Description> tests, TaskDurations durations) {
+        List<Description> sortedTests = new ArrayList<Description>(tests);
+        Collections.sort(sortedTests, new Comparator<Description>() {
+            public int compare(Description test1, Description test2) {
+                return test1.getDisplayName().compareTo(test2.getDisplayName());
+            }
+        });
+        Set<Description> res = Collections.newSetFromMap(new IdentityHashMap<Description, Boolean>());
+        if (byDurations && durations != null) {
+            selectTestsByDurations(sortedTests, durations, res);
+        } else {
+            for (int i = shardIndex, l = sortedTests.size(); i < l; i += shardCount) {
+                res.add(sortedTests.get(i));
+            }
+        }
+        return res;
+    }
+
+    // Longest tests first, each one given to the shard with the smallest total duration so far. Tests which never
+    // ran are considered to last as long as the average known test.
+    private void selectTestsByDurations(List<Description> sortedTests, TaskDurations durations, Set<Description> res) {
+        final Map<Description, Long> testDurations = new IdentityHashMap<Description, Long>();
+        long total = 0;
+        int known = 0;
+        for (Description test : sortedTests) {
+            long duration = durations.get(test.getDisplayName());
+            if (duration >= 0) {
+                testDurations.put(test, duration);
+                total += duration;
+                known++;
+            }
+        }
+        long defaultDuration = known > 0 ? total / known : 1;
+        for (Description test : sortedTests) {
+            if (!testDurations.containsKey(test)) {
+                testDurations.put(test, defaultDuration);
+            }
+        }
+        // the sort is stable, so tests with the same duration stay sorted by name
+        Collections.sort(sortedTests, new Comparator<Description>() {
+            public int compare(Description test1, Description test2) {
+                return testDurations.get(test2).compareTo(testDurations.get(test1));
+            }
+        });
+        long[] shardsDurations = new long[shardCount];
+        for (Description test : sortedTests) {
+            int shard = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (shardsDurations[i] < shardsDurations[shard]) {
+                    shard = i;
+                }
+            }
+            shardsDurations[shard] += testDurations.get(test);
+            if (shard == shardIndex) {
+                res.add(test);
+            }
+        }
+    }
+}
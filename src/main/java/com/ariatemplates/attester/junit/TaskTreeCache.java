@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps the last tasks list of a campaign on disk, so that the description of the tests can be given without starting
+// attester. The cache entry depends on the configuration file and on the name, size and modification date of the files
+// in the sources directories. These directories must be given, as the ones of the tests cannot be found without
+// reading the configuration file like attester, and walking the directory of the configuration file would also walk
+// dependencies and build outputs.
+public class TaskTreeCache {
+    public static final String TASKS_CACHE_SYS_PROPERTY = "com.ariatemplates.attester.tasksCache";
+    public static final String TASKS_CACHE_DIR_SYS_PROPERTY = "com.ariatemplates.attester.tasksCacheDir";
+    public static final String SOURCES_SYS_PROPERTY = "com.ariatemplates.attester.sources";
+    private static final String DEFAULT_CACHE_DIR = System.getProperty("user.home") + File.separator
+            + ".attester-junit" + File.separator + "tasks";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String NO_SOURCES = "Warning: the tasks list is not cached, as the sources directories are not given with the %s property.";
+
+    private final File configFile;
+    private final File cacheDirectory;
+    private final List<File> sources = new ArrayList<File>();
+    private File cacheFile;
+
+    public TaskTreeCache(File configFile, File cacheDirectory, List<File> sources) {
+        this.configFile = configFile.getAbsoluteFile();
+        this.cacheDirectory = cacheDirectory;
+        this.sources.addAll(sources);
+    }
+
+    // returns null if the cache is not enabled, or if the sources directories are not given
+    public static TaskTreeCache fromSystemProperties(String configFile) {
+        if (!Boolean.getBoolean(TASKS_CACHE_SYS_PROPERTY)) {
+            return null;
+        }
+        List<File> sources = new ArrayList<File>();
+        String sourcesProperty = System.getProperty(SOURCES_SYS_PROPERTY, "");
+        for (String source : sourcesProperty.split(File.pathSeparator)) {
+            if (source.trim().length() > 0) {
+                sources.add(new File(source.trim()));
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println(String.format(NO_SOURCES, SOURCES_SYS_PROPERTY));
+            return null;
+        }
+        return new TaskTreeCache(new File(configFile), new File(System.getProperty(TASKS_CACHE_DIR_SYS_PROPERTY,
+                DEFAULT_CACHE_DIR)), sources);
+    }
+
+    private synchronized File getCacheFile() throws IOException {
+        if (cacheFile == null) {
+            cacheFile = new File(cacheDirectory, computeKey() + ".json");
+        }
+        return cacheFile;
+    }
+
+    private String computeKey() throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(configFile.getPath().getBytes(UTF8));
+        digest.update(Files.readAllBytes(configFile.toPath()));
+        for (File source : sources) {
+            final List<String> files = new ArrayList<String>();
+            if (source.exists()) {
+                Files.walkFileTree(source.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        Path name = dir.getFileName();
+                        if (name != null && name.toString().startsWith(".")) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        files.add(file + "\t" + attrs.size() + "\t" + attrs.lastModifiedTime().toMillis() + "\n");
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            Collections.sort(files);
+            for (String file : files) {
+                digest.update(file.getBytes(UTF8));
+            }
+        }
+        StringBuilder res = new StringBuilder();
+        for (byte b : digest.digest()) {
+            res.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return res.toString();
+    }
+
+    // returns null if there is no up-to-date tasks list
+    public TaskNode[] load() {
+        try {
+            File file = getCacheFile();
+            if (!file.isFile()) {
+                return null;
+            }
+            return JsonInputStream.getObjectMapper().readValue(file, TaskNode[].class);
+        } catch (IOException e) {
+            System.err.println("Failed to read the cached tasks list of " + configFile + ": " + e);
+            return null;
+        }
+    }
+
+    public void save(TaskNode[] tasks) {
+        try {
+            File file = getCacheFile();
+            cacheDirectory.mkdirs();
+            // written to another file first, so that other JVMs never read an incomplete file
+            File tempFile = File.createTempFile("tasks", ".tmp", cacheDirectory);
+            JsonInputStream.getObjectMapper().writeValue(tempFile, tasks);
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    tempFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write the cached tasks list of " + configFile + ": " + e);
+        }
+    }
+}
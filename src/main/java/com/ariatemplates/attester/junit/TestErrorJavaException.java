@@ -15,61 +15,237 @@
 
 package com.ariatemplates.attester.junit;
 
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import junit.framework.AssertionFailedError;
 
+// The stack of an error is only converted when it is needed (by getStackTrace or printStackTrace), and identical
+// stacks share their converted frames, so that reporting many failures with the same stack stays cheap.
 public abstract class TestErrorJavaException {
+    public static final String MAX_STACK_DEPTH_SYS_PROPERTY = "com.ariatemplates.attester.maxStackDepth";
+    // number of different stacks whose conversion is kept
+    private static final int STACKS_CACHE_SIZE = 1000;
+    private static final String OMITTED_FRAMES = "\t... %d more";
+    private static final String OUTPUT_HEADER = "\nOutput of attester and of the browsers while the test was running:";
+
+    private static final Map<List<TestErrorStackElement>, StackTraceElement[]> stacksCache = new LinkedHashMap<List<TestErrorStackElement>, StackTraceElement[]>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<TestErrorStackElement>, StackTraceElement[]> eldest) {
+            return size() > STACKS_CACHE_SIZE;
+        }
+    };
 
     private TestErrorJavaException() {
     }
 
-    private static StackTraceElement[] createJavaStackTrace(TestError testFailure) {
-        TestErrorStackElement[] stack = testFailure.stack;
-        if (stack == null) {
-            stack = new TestErrorStackElement[0];
-        }
-        StackTraceElement[] javaStack = new StackTraceElement[stack.length];
-        for (int i = stack.length - 1; i >= 0; i--) {
-            TestErrorStackElement element = stack[i];
-            javaStack[i] = new StackTraceElement(element.className, element.function, element.file, element.line);
+    private static StackTraceElement[] createJavaStackTrace(TestErrorStackElement[] stack, int depth) {
+        List<TestErrorStackElement> key = Arrays.asList(stack).subList(0, depth);
+        synchronized (stacksCache) {
+            StackTraceElement[] javaStack = stacksCache.get(key);
+            if (javaStack == null) {
+                javaStack = new StackTraceElement[depth];
+                for (int i = depth - 1; i >= 0; i--) {
+                    TestErrorStackElement element = stack[i];
+                    javaStack[i] = new StackTraceElement(element.className != null ? element.className : "",
+                            element.function != null ? element.function : "", element.file, element.line);
+                }
+                // a copy, as the view would keep the whole stack of the error
+                stacksCache.put(new ArrayList<TestErrorStackElement>(key), javaStack);
+            }
+            return javaStack;
         }
-        return javaStack;
     }
 
     public static Throwable createFromTestFailure(TestError failure) {
+        return createFromTestFailure(failure, null);
+    }
+
+    // Output is added after the message if it is not empty. The list is kept as it is, and only joined with the
+    // message when it is printed.
+    public static Throwable createFromTestFailure(TestError failure, List<String> output) {
         final TestError testFailure;
         if (failure == null) {
             testFailure = new TestError();
         } else {
             testFailure = failure;
         }
+        if (output != null && output.isEmpty()) {
+            output = null;
+        }
         if (testFailure.failure) {
-            return new AssertionFailedError() {
-                @Override
-                public String toString() {
-                    return testFailure.message;
-                }
+            return new TestFailure(testFailure, testFailure.message, output);
+        } else {
+            return new TestException(testFailure, testFailure.message, output);
+        }
+    }
 
-                @Override
-                public synchronized Throwable fillInStackTrace() {
-                    setStackTrace(createJavaStackTrace(testFailure));
-                    return this;
-                }
+    private static String toString(String message, List<String> output) {
+        if (output == null) {
+            return message;
+        }
+        StringBuilder res = new StringBuilder(String.valueOf(message)).append(OUTPUT_HEADER);
+        for (String line : output) {
+            res.append('\n').append(line);
+        }
+        return res.toString();
+    }
 
-            };
-        } else {
-            return new Exception() {
-                @Override
-                public String toString() {
-                    return testFailure.message;
-                }
+    // The stack of an error until it is converted, and the number of frames which are not kept.
+    private static class LazyStack implements Serializable {
+        private static final long serialVersionUID = 1L;
+        // not needed any more once the stack is converted
+        private transient TestErrorStackElement[] stack;
+        private final int omittedFrames;
 
-                @Override
-                public synchronized Throwable fillInStackTrace() {
-                    setStackTrace(createJavaStackTrace(testFailure));
-                    return this;
-                }
+        public LazyStack(TestError testFailure) {
+            stack = testFailure.stack != null ? testFailure.stack : new TestErrorStackElement[0];
+            int maxDepth = Integer.getInteger(MAX_STACK_DEPTH_SYS_PROPERTY, 0);
+            omittedFrames = maxDepth > 0 ? Math.max(0, stack.length - maxDepth) : 0;
+        }
+
+        public synchronized void setStackTrace(Throwable exception) {
+            if (stack != null) {
+                StackTraceElement[] javaStack = createJavaStackTrace(stack, stack.length - omittedFrames);
+                stack = null;
+                exception.setStackTrace(javaStack);
+            }
+        }
+
+        // the stack trace given to the exception replaces the one of the error
+        public synchronized void discard() {
+            stack = null;
+        }
+
+        public void printOmittedFrames(PrintStream s) {
+            if (omittedFrames > 0) {
+                s.println(String.format(OMITTED_FRAMES, omittedFrames));
+            }
+        }
+
+        public void printOmittedFrames(PrintWriter s) {
+            if (omittedFrames > 0) {
+                s.println(String.format(OMITTED_FRAMES, omittedFrames));
+            }
+        }
+    }
+
+    // JUnit reports assertion errors as failures and other exceptions as errors, so both kinds of exceptions have
+    // their own class, which only delegate to the lazy stack.
+    private static class TestFailure extends AssertionFailedError {
+        private static final long serialVersionUID = 1L;
+        private final String message;
+        private final List<String> output;
+        private final LazyStack stack;
+
+        public TestFailure(TestError testFailure, String message, List<String> output) {
+            this.message = message;
+            this.output = output;
+            stack = new LazyStack(testFailure);
+        }
+
+        @Override
+        public String toString() {
+            return TestErrorJavaException.toString(message, output);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // the stack is not the one of the Java code which creates the exception
+            return this;
+        }
+
+        @Override
+        public void setStackTrace(StackTraceElement[] stackTrace) {
+            stack.discard();
+            super.setStackTrace(stackTrace);
+        }
+
+        @Override
+        public StackTraceElement[] getStackTrace() {
+            stack.setStackTrace(this);
+            return super.getStackTrace();
+        }
+
+        @Override
+        public void printStackTrace(PrintStream s) {
+            stack.setStackTrace(this);
+            super.printStackTrace(s);
+            stack.printOmittedFrames(s);
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter s) {
+            stack.setStackTrace(this);
+            super.printStackTrace(s);
+            stack.printOmittedFrames(s);
+        }
+
+        protected Object writeReplace() {
+            stack.setStackTrace(this);
+            return this;
+        }
+    }
+
+    private static class TestException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final String message;
+        private final List<String> output;
+        private final LazyStack stack;
+
+        public TestException(TestError testFailure, String message, List<String> output) {
+            this.message = message;
+            this.output = output;
+            stack = new LazyStack(testFailure);
+        }
+
+        @Override
+        public String toString() {
+            return TestErrorJavaException.toString(message, output);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // the stack is not the one of the Java code which creates the exception
+            return this;
+        }
+
+        @Override
+        public void setStackTrace(StackTraceElement[] stackTrace) {
+            stack.discard();
+            super.setStackTrace(stackTrace);
+        }
+
+        @Override
+        public StackTraceElement[] getStackTrace() {
+            stack.setStackTrace(this);
+            return super.getStackTrace();
+        }
+
+        @Override
+        public void printStackTrace(PrintStream s) {
+            stack.setStackTrace(this);
+            super.printStackTrace(s);
+            stack.printOmittedFrames(s);
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter s) {
+            stack.setStackTrace(this);
+            super.printStackTrace(s);
+            stack.printOmittedFrames(s);
+        }
 
-            };
+        protected Object writeReplace() {
+            stack.setStackTrace(this);
+            return this;
         }
     }
 }
@@ -23,4 +23,31 @@ public class TestErrorStackElement {
     public String function = "";
     public String file;
     public int line = -1;
+
+    // so that identical stacks can share their conversion to Java
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TestErrorStackElement)) {
+            return false;
+        }
+        TestErrorStackElement other = (TestErrorStackElement) obj;
+        return line == other.line && equals(className, other.className) && equals(function, other.function)
+                && equals(file, other.file);
+    }
+
+    private static boolean equals(String string1, String string2) {
+        return string1 == null ? string2 == null : string1.equals(string2);
+    }
+
+    @Override
+    public int hashCode() {
+        int res = line;
+        res = 31 * res + (className != null ? className.hashCode() : 0);
+        res = 31 * res + (function != null ? function.hashCode() : 0);
+        res = 31 * res + (file != null ? file.hashCode() : 0);
+        return res;
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Names given to tests, unique among the runners which share this object (the campaigns of a suite). The next suffix
+// to try is kept for each name used several times, so that giving the same name to n tests takes a linear time.
+public class UniqueNames {
+    private final Set<String> names = new HashSet<String>();
+    private final Map<String, Integer> nextSuffixes = new HashMap<String, Integer>();
+
+    public synchronized String create(String initialName) {
+        if (names.add(initialName)) {
+            return initialName;
+        }
+        Integer nextSuffix = nextSuffixes.get(initialName);
+        int i = nextSuffix != null ? nextSuffix : 2;
+        String name;
+        do {
+            name = initialName + i;
+            i++;
+        } while (!names.add(name));
+        nextSuffixes.put(initialName, i);
+        return name;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+// Servers are shared by the connections which use the same command line, so each test uses its own.
+public class AttesterServerTest {
+    @Rule
+    public SystemProperties sysProperties = new SystemProperties();
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private final List<AttesterServer.Connection> connections = new ArrayList<AttesterServer.Connection>();
+
+    @Before
+    public void useSyntheticCampaigns() {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC + ":tasks=3");
+    }
+
+    @After
+    public void releaseConnections() {
+        for (AttesterServer.Connection connection : connections) {
+            connection.release();
+        }
+    }
+
+    @Test
+    public void connectionsShareTheServerUntilItIsClaimed() {
+        AttesterServer.Connection first = connect();
+        AttesterServer.Connection second = connect();
+        assertSame(first.getServer(), second.getServer());
+        assertEquals("tasksList", first.readMessage().event);
+        assertEquals("tasksList", second.readMessage().event);
+
+        first.claim();
+        AttesterServer.Connection third = connect();
+        assertNotSame(first.getServer(), third.getServer());
+    }
+
+    @Test
+    public void otherConnectionsMoveToANewServer() {
+        AttesterServer.Connection first = connect();
+        AttesterServer.Connection second = connect();
+        AttesterServer server = first.getServer();
+        assertEquals("tasksList", second.readMessage().event);
+        first.claim();
+        List<String> events = readCampaign(first);
+        assertSame(server, first.getServer());
+
+        // the messages are read again from the beginning, from another attester process
+        assertEquals(events, readCampaign(second));
+        assertNotSame(server, second.getServer());
+    }
+
+    @Test
+    public void sameCampaignCanBeRunTwice() {
+        AttesterServer.Connection first = connect();
+        first.claim();
+        List<String> events = readCampaign(first);
+        first.release();
+        AttesterServer.Connection second = connect();
+        second.claim();
+        assertEquals(events, readCampaign(second));
+    }
+
+    // the first message of the campaign is only given after a second
+    @Test
+    public void waitingForMessagesDoesNotBlockOtherConnections() throws Exception {
+        sysProperties.set(EventSource.EVENT_RATE_SYS_PROPERTY, "1");
+        final AttesterServer.Connection first = connect();
+        AttesterServer.Connection second = connect();
+        final AtomicReference<Message> message = new AtomicReference<Message>();
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                message.set(first.readMessage());
+            }
+        });
+        reader.start();
+        Thread.sleep(100);
+        long begin = System.currentTimeMillis();
+        second.claim();
+        AttesterServer.Connection third = connect();
+        third.release();
+        assertTrue(System.currentTimeMillis() - begin < 500);
+        reader.join(10000);
+        assertEquals("tasksList", message.get().event);
+        assertNotSame(first.getServer(), second.getServer());
+    }
+
+    private AttesterServer.Connection connect() {
+        AttesterServer.Connection res = AttesterServer.connect(new String[] { "--no-colors",
+            testName.getMethodName() + ".yml" }, 1);
+        connections.add(res);
+        return res;
+    }
+
+    private static List<String> readCampaign(AttesterServer.Connection connection) {
+        List<String> res = new ArrayList<String>();
+        Message message;
+        do {
+            message = connection.readMessage();
+            res.add(message.event + " " + message.taskId);
+        } while (!"campaignFinished".equals(message.event));
+        return res;
+    }
+}
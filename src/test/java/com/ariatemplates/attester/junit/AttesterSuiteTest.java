@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+public class AttesterSuiteTest {
+    private static final String CONFIG_DIR = "target/suite-test";
+    private static final int TASKS = 120;
+
+    // the first configuration file is matched twice
+    @AttesterSuite.ConfigFiles({ CONFIG_DIR + "/first/attester.yml", CONFIG_DIR + "/*/attester.yml" })
+    public static class Suite {
+    }
+
+    @Rule
+    public SystemProperties sysProperties = new SystemProperties();
+
+    @BeforeClass
+    public static void createConfigFiles() throws IOException {
+        for (String campaign : new String[] { "first", "second" }) {
+            File configFile = new File(CONFIG_DIR + "/" + campaign + "/attester.yml");
+            configFile.getParentFile().mkdirs();
+            configFile.createNewFile();
+        }
+    }
+
+    @Before
+    public void useSyntheticCampaigns() {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC + ":tasks=" + TASKS
+                + ",browsers=3,failureRate=0.1");
+    }
+
+    // both campaigns have the same task names, which get a suffix in the second one
+    @Test
+    public void namesTestsInCampaignOrder() throws Exception {
+        AttesterSuite suite = new AttesterSuite(Suite.class);
+        try {
+            List<Description> campaigns = suite.getDescription().getChildren();
+            assertEquals(2, campaigns.size());
+            List<String> firstNames = getTestNames(campaigns.get(0));
+            List<String> secondNames = getTestNames(campaigns.get(1));
+            assertEquals(TASKS, firstNames.size());
+            assertEquals(TASKS, secondNames.size());
+            assertEquals("synthetic.group0.Test0", firstNames.get(0));
+            assertEquals("synthetic.group0.Test02", secondNames.get(0));
+            Set<String> allNames = new HashSet<String>(firstNames);
+            allNames.addAll(secondNames);
+            assertEquals(2 * TASKS, allNames.size());
+        } finally {
+            suite.close();
+        }
+    }
+
+    @Test
+    public void runsAllCampaigns() throws Exception {
+        AttesterSuite suite = new AttesterSuite(Suite.class);
+        final Set<Description> finished = new HashSet<Description>();
+        RunNotifier notifier = new RunNotifier();
+        notifier.addListener(new RunListener() {
+            @Override
+            public void testFinished(Description description) {
+                synchronized (finished) {
+                    assertTrue(finished.add(description));
+                }
+            }
+        });
+        suite.run(notifier);
+        assertEquals(2 * TASKS, finished.size());
+    }
+
+    private static List<String> getTestNames(Description description) {
+        List<String> res = new ArrayList<String>();
+        if (description.isTest()) {
+            res.add(description.getDisplayName());
+        }
+        for (Description child : description.getChildren()) {
+            res.addAll(getTestNames(child));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.w3c.dom.Element;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// Whole campaigns run by the runner, with messages which come from the stand-ins of attester. Attester processes are
+// shared by the runners which use the same command line, so each campaign has its own configuration file name.
+public class AttesterTest {
+    private static final int TASKS = 50;
+    private static final String INCLUDES_OPTION = "--includes";
+    private static final String SYNTHETIC_OPTIONS = "tasks=250,browsers=3,failureRate=0.1,stackDepth=5";
+    private static final String COUNTS = "%d started, %d finished, %d failures";
+    private static final Sorter REVERSE_SORTER = new Sorter(Collections.reverseOrder(new Comparator<Description>() {
+        public int compare(Description first, Description second) {
+            return first.getDisplayName().compareTo(second.getDisplayName());
+        }
+    }));
+
+    @Rule
+    public SystemProperties sysProperties = new SystemProperties();
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void useSyntheticCampaigns() {
+        useSyntheticCampaign(0);
+    }
+
+    private void useSyntheticCampaign(double failureRate) {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC + ":tasks=" + TASKS
+                + ",browsers=3,failureRate=" + failureRate);
+    }
+
+    @Test
+    public void runsSyntheticCampaign() throws Exception {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC + ":"
+                + SYNTHETIC_OPTIONS);
+        sysProperties.set(TaskReport.REPORT_DIR_SYS_PROPERTY, folder.getRoot().getPath());
+        String expected = countEvents(SyntheticEventSource.fromOptions(SYNTHETIC_OPTIONS));
+        Attester attester = createAttester("");
+        assertEquals(250, getTestNames(attester.getDescription()).size());
+        Recorder recorder = run(attester);
+        assertEquals(expected, recorder.getCounts());
+
+        Element testSuite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+                new File(folder.getRoot(), "TEST-campaign.xml")).getDocumentElement();
+        assertEquals("250", testSuite.getAttribute("tests"));
+        assertEquals(String.valueOf(recorder.failed.size()), testSuite.getAttribute("failures"));
+    }
+
+    @Test
+    public void describesTheTasksTree() {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC + ":"
+                + SYNTHETIC_OPTIONS);
+        Attester attester = createAttester("");
+        try {
+            List<Description> groups = attester.getDescription().getChildren();
+            assertEquals(3, groups.size());
+            assertEquals("synthetic.group2", groups.get(2).getDisplayName());
+            assertEquals(50, groups.get(2).getChildren().size());
+            assertEquals("synthetic.group2.Test49", groups.get(2).getChildren().get(49).getDisplayName());
+            assertTrue(groups.get(2).getChildren().get(49).isTest());
+        } finally {
+            attester.close();
+        }
+    }
+
+    @Test
+    public void replaysJsonLog() throws Exception {
+        checkReplay(new JsonFactory());
+    }
+
+    @Test
+    public void replaysSmileLog() throws Exception {
+        checkReplay(new SmileFactory());
+    }
+
+    @Test
+    public void shardsReportTheOtherTasksAsIgnored() {
+        checkShards();
+    }
+
+    @Test
+    public void restrictedShardsReportTheOtherTasksAsIgnored() {
+        sysProperties.set(Attester.INCLUDES_OPTION_SYS_PROPERTY, INCLUDES_OPTION);
+        checkShards();
+    }
+
+    // filtered tests are neither run nor reported as ignored
+    @Test
+    public void runsOnlyTheFilteredTests() throws Exception {
+        checkFilter();
+    }
+
+    @Test
+    public void restrictedCampaignRunsOnlyTheFilteredTests() throws Exception {
+        sysProperties.set(Attester.INCLUDES_OPTION_SYS_PROPERTY, INCLUDES_OPTION);
+        checkFilter();
+    }
+
+    @Test(expected = NoTestsRemainException.class)
+    public void filterWithoutTestsFails() throws Exception {
+        createAttester("").filter(new Filter() {
+            @Override
+            public boolean shouldRun(Description description) {
+                return !description.isTest();
+            }
+
+            @Override
+            public String describe() {
+                return "no test";
+            }
+        });
+    }
+
+    // without the includes option, attester runs the tasks in its own order
+    @Test
+    public void sortedTestsAreRunInTheOrderOfTheCampaign() {
+        Attester attester = createAttester("");
+        List<String> tests = getTestNames(attester.getDescription());
+        attester.sort(REVERSE_SORTER);
+        List<String> sortedTests = new ArrayList<String>(tests);
+        Collections.sort(sortedTests, Collections.reverseOrder());
+        assertEquals(sortedTests, getTestNames(attester.getDescription()));
+        Recorder recorder = run(attester);
+        assertEquals(tests, recorder.started);
+        assertTrue(recorder.ignored.isEmpty());
+    }
+
+    // the synthetic campaign runs the tasks in the order of the includes, as attester
+    @Test
+    public void restrictedCampaignRunsTheTasksInTheOrderOfTheTests() {
+        sysProperties.set(Attester.INCLUDES_OPTION_SYS_PROPERTY, INCLUDES_OPTION);
+        Attester attester = createAttester("");
+        List<String> tests = getTestNames(attester.getDescription());
+        attester.sort(REVERSE_SORTER);
+        Recorder recorder = run(attester);
+        Collections.sort(tests, Collections.reverseOrder());
+        assertEquals(tests, recorder.started);
+        assertEquals(TASKS, recorder.finished.size());
+    }
+
+    // tasks which never ran may be long, so they come first
+    @Test
+    public void longestTasksAreRunFirst() {
+        File file = new File(folder.getRoot(), "durations.txt");
+        TaskDurations durations = new TaskDurations(file);
+        List<String> expected = new ArrayList<String>();
+        expected.add("synthetic.group0.Test0");
+        for (int i = TASKS - 1; i > 0; i--) {
+            durations.record("synthetic.group0.Test" + i, 10 * i);
+            expected.add("synthetic.group0.Test" + i);
+        }
+        durations.save();
+        sysProperties.set(TaskDurations.DURATIONS_FILE_SYS_PROPERTY, file.getPath());
+        sysProperties.set(Attester.INCLUDES_OPTION_SYS_PROPERTY, INCLUDES_OPTION);
+        sysProperties.set(Attester.LONGEST_FIRST_SYS_PROPERTY, "true");
+        assertEquals(expected, run(createAttester("")).started);
+    }
+
+    @Test
+    public void rerunsOnlyTheFailedTasks() {
+        Recorder firstRun = runWithFailures();
+        sysProperties.set(FailedTasks.RERUN_FAILED_SYS_PROPERTY, FailedTasks.RERUN_ONLY);
+        useSyntheticCampaign(0);
+        Recorder rerun = run(createAttester(""));
+        assertEquals(firstRun.failed, new HashSet<String>(rerun.started));
+        assertEquals(TASKS, rerun.started.size() + rerun.ignored.size());
+        assertTrue(rerun.failed.isEmpty());
+    }
+
+    @Test
+    public void rerunsTheFailedTasksFirst() {
+        checkRerunFirst();
+    }
+
+    @Test
+    public void restrictedCampaignRerunsTheFailedTasksFirst() {
+        sysProperties.set(Attester.INCLUDES_OPTION_SYS_PROPERTY, INCLUDES_OPTION);
+        checkRerunFirst();
+    }
+
+    // the synthetic campaign gives the same failures again
+    @Test
+    public void rerunStopsIfAFailedTaskFailsAgain() {
+        Recorder firstRun = runWithFailures();
+        sysProperties.set(FailedTasks.RERUN_FAILED_SYS_PROPERTY, FailedTasks.RERUN_FIRST);
+        Recorder rerun = run(createAttester(""));
+        assertEquals(firstRun.failed, new HashSet<String>(rerun.started));
+        assertEquals(firstRun.failed, rerun.failed);
+        assertEquals(TASKS, rerun.started.size() + rerun.ignored.size());
+    }
+
+    // Messages are given every second, so that each task runs for three seconds. The events given by the campaign
+    // for a task which timed out are ignored.
+    @Test
+    public void tasksWhichRunTooLongFail() {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC
+                + ":tasks=3,browsers=3");
+        sysProperties.set(EventSource.EVENT_RATE_SYS_PROPERTY, "1");
+        sysProperties.set(Attester.TASK_TIMEOUT_SYS_PROPERTY, "1");
+        Recorder recorder = run(createAttester(""));
+        assertEquals(3, recorder.finished.size());
+        assertEquals(3, recorder.failed.size());
+        for (String message : recorder.failureMessages) {
+            assertEquals("Timeout: the task did not finish within 1 seconds.", message);
+        }
+    }
+
+    @Test
+    public void campaignWhichRunsTooLongEnds() {
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_SYNTHETIC
+                + ":tasks=10,browsers=2");
+        sysProperties.set(EventSource.EVENT_RATE_SYS_PROPERTY, "1");
+        sysProperties.set(Attester.CAMPAIGN_TIMEOUT_SYS_PROPERTY, "1");
+        long begin = System.currentTimeMillis();
+        Recorder recorder = run(createAttester(""));
+        assertTrue(System.currentTimeMillis() - begin < 10000);
+        assertEquals(10, recorder.started.size());
+        assertEquals(10, recorder.finished.size());
+        assertEquals(10, recorder.failed.size());
+        assertEquals("Timeout: the campaign did not finish within 1 seconds.", recorder.failureMessages.get(0));
+    }
+
+    private void checkRerunFirst() {
+        Recorder firstRun = runWithFailures();
+        sysProperties.set(FailedTasks.RERUN_FAILED_SYS_PROPERTY, FailedTasks.RERUN_FIRST);
+        useSyntheticCampaign(0);
+        Recorder rerun = run(createAttester(""));
+        int failed = firstRun.failed.size();
+        assertEquals(firstRun.failed, new HashSet<String>(rerun.started.subList(0, failed)));
+        assertEquals(TASKS, new HashSet<String>(rerun.started).size());
+        assertEquals(TASKS, rerun.finished.size());
+        assertTrue(rerun.ignored.isEmpty());
+    }
+
+    private Recorder runWithFailures() {
+        sysProperties.set(FailedTasks.FAILURES_DIR_SYS_PROPERTY, folder.getRoot().getPath());
+        useSyntheticCampaign(0.2);
+        Recorder res = run(createAttester(""));
+        assertTrue(res.failed.size() > 0 && res.failed.size() < TASKS);
+        return res;
+    }
+
+    // the log starts with a message which is not an event, as the one which describes attester
+    private void checkReplay(JsonFactory factory) throws IOException {
+        File log = folder.newFile("campaign.log");
+        OutputStream out = new FileOutputStream(log);
+        try {
+            JsonGenerator generator = factory.createJsonGenerator(out);
+            generator.writeStartObject();
+            generator.writeStringField("version", "1.0");
+            generator.writeEndObject();
+            SyntheticEventSource source = SyntheticEventSource.fromOptions(SYNTHETIC_OPTIONS);
+            Message message;
+            do {
+                message = source.readMessage();
+                JsonInputStream.getObjectMapper().writeValue(generator, message);
+            } while (!"campaignFinished".equals(message.event));
+            generator.close();
+        } finally {
+            out.close();
+        }
+        sysProperties.set(EventSource.EVENT_SOURCE_SYS_PROPERTY, EventSource.SOURCE_REPLAY + ":" + log.getPath());
+        assertEquals(countEvents(SyntheticEventSource.fromOptions(SYNTHETIC_OPTIONS)), run(createAttester(""))
+                .getCounts());
+    }
+
+    private static String countEvents(EventSource source) {
+        int started = 0;
+        int finished = 0;
+        int failures = 0;
+        Message message;
+        do {
+            message = source.readMessage();
+            if ("taskStarted".equals(message.event)) {
+                started++;
+            } else if ("taskFinished".equals(message.event)) {
+                finished++;
+            } else if ("error".equals(message.event)) {
+                failures++;
+            }
+        } while (!"campaignFinished".equals(message.event));
+        return String.format(COUNTS, started, finished, failures);
+    }
+
+    private void checkFilter() throws NoTestsRemainException {
+        Attester attester = createAttester("");
+        attester.filter(new Filter() {
+            @Override
+            public boolean shouldRun(Description description) {
+                return !description.isTest() || description.getDisplayName().matches(".*[02468]");
+            }
+
+            @Override
+            public String describe() {
+                return "even tests";
+            }
+        });
+        List<String> tests = getTestNames(attester.getDescription());
+        assertEquals(TASKS / 2, tests.size());
+        Recorder recorder = run(attester);
+        assertEquals(tests, recorder.started);
+        assertEquals(tests, recorder.finished);
+        assertTrue(recorder.ignored.isEmpty());
+    }
+
+    private void checkShards() {
+        sysProperties.set(TaskSharding.SHARD_COUNT_SYS_PROPERTY, "2");
+        sysProperties.set(TaskSharding.SHARD_INDEX_SYS_PROPERTY, "0");
+        Recorder first = run(createAttester("0"));
+        sysProperties.set(TaskSharding.SHARD_INDEX_SYS_PROPERTY, "1");
+        Recorder second = run(createAttester("1"));
+
+        assertTrue(first.started.size() > 0 && second.started.size() > 0);
+        assertEquals(TASKS, first.started.size() + second.started.size());
+        assertEquals(new HashSet<String>(first.started), second.ignored);
+        assertEquals(new HashSet<String>(second.started), first.ignored);
+        assertEquals(first.started, first.finished);
+        assertEquals(second.started, second.finished);
+    }
+
+    private Attester createAttester(String suffix) {
+        return new Attester("campaign", testName.getMethodName() + suffix + ".yml");
+    }
+
+    // the description is given before the run, as by JUnit
+    private static Recorder run(Attester attester) {
+        attester.getDescription();
+        Recorder res = new Recorder();
+        RunNotifier notifier = new RunNotifier();
+        notifier.addListener(res);
+        attester.run(notifier);
+        return res;
+    }
+
+    private static List<String> getTestNames(Description description) {
+        List<String> res = new ArrayList<String>();
+        if (description.isTest()) {
+            res.add(description.getDisplayName());
+        }
+        for (Description child : description.getChildren()) {
+            res.addAll(getTestNames(child));
+        }
+        return res;
+    }
+
+    private static class Recorder extends RunListener {
+        private final List<String> started = new ArrayList<String>();
+        private final List<String> finished = new ArrayList<String>();
+        private final Set<String> ignored = new HashSet<String>();
+        private final Set<String> failed = new HashSet<String>();
+        private final List<String> failureMessages = new ArrayList<String>();
+
+        @Override
+        public void testStarted(Description description) {
+            started.add(description.getDisplayName());
+        }
+
+        @Override
+        public void testFinished(Description description) {
+            finished.add(description.getDisplayName());
+        }
+
+        @Override
+        public void testIgnored(Description description) {
+            ignored.add(description.getDisplayName());
+        }
+
+        @Override
+        public void testFailure(Failure failure) {
+            failed.add(failure.getDescription().getDisplayName());
+            failureMessages.add(failure.getException().toString());
+        }
+
+        private String getCounts() {
+            return String.format(COUNTS, started.size(), finished.size(), failed.size());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BrowserPoolTest {
+    private static final String[] BROWSER_CMD = { "phantomjs", "attester.js", "http://localhost:7777/__attester__" };
+
+    @Rule
+    public SystemProperties sysProperties = new SystemProperties();
+
+    private BrowserPool pool;
+
+    @Before
+    public void createPool() {
+        sysProperties.set(BrowserPool.BROWSER_ENGINES_SYS_PROPERTY, BrowserLauncher.ENGINE_STUB + ":3");
+        sysProperties.set(BrowserPool.MAX_BROWSERS_SYS_PROPERTY, "5");
+        pool = new BrowserPool();
+    }
+
+    @After
+    public void stopPool() {
+        pool.stop();
+    }
+
+    @Test
+    public void waitsForTheBrowserCommand() {
+        pool.adjust(10, 0);
+        assertEquals(0, pool.getStartedBrowsers());
+        pool.setBrowserCommand(BROWSER_CMD);
+        pool.adjust(10, 0);
+        assertTrue(pool.getStartedBrowsers() >= 3);
+    }
+
+    @Test
+    public void startsOneBrowserUntilTasksAreKnown() {
+        pool.setBrowserCommand(BROWSER_CMD);
+        pool.adjust(-1, 0);
+        assertEquals(1, pool.getStartedBrowsers());
+    }
+
+    @Test
+    public void neverStartsMoreBrowsersThanTasks() {
+        pool.setBrowserCommand(BROWSER_CMD);
+        pool.adjust(1, 1);
+        assertEquals(2, pool.getStartedBrowsers());
+        pool.adjust(0, 0);
+        assertEquals(2, pool.getStartedBrowsers());
+    }
+
+    // attester does not tell which browser is idle, so a browser which is not needed any more may still be running
+    // a task
+    @Test
+    public void neverStopsBrowsers() {
+        pool.setBrowserCommand(BROWSER_CMD);
+        pool.adjust(100, 0);
+        int started = pool.getStartedBrowsers();
+        assertTrue(started >= 3 && started <= 5);
+        pool.adjust(0, 1);
+        pool.adjust(0, 0);
+        assertEquals(started, pool.getStartedBrowsers());
+    }
+
+    @Test
+    public void growsUpToTheMaximumSize() {
+        pool.setBrowserCommand(BROWSER_CMD);
+        for (int i = 0; i < 10; i++) {
+            pool.adjust(100, pool.getStartedBrowsers());
+        }
+        assertTrue(pool.getStartedBrowsers() <= pool.getMaxSize());
+        assertEquals(5, pool.getMaxSize());
+    }
+}
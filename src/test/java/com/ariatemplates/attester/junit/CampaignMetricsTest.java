@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CampaignMetricsTest {
+    private final CampaignMetrics metrics = new CampaignMetrics("campaign");
+
+    // attester starts a task again when its browser is lost
+    @Test
+    public void countsTheFirstStartOfEachTask() {
+        process("taskStarted", 0);
+        process("taskStarted", 1);
+        process("taskStarted", 0);
+        assertEquals(2, metrics.getRunningTasks());
+        process("taskFinished", 0);
+        process("taskFinished", 0);
+        assertEquals(1, metrics.getRunningTasks());
+        assertEquals(1, metrics.getFinishedTasks());
+        assertEquals(5, metrics.getEvents());
+        assertEquals(Long.valueOf(3), metrics.getEventCounts().get("taskStarted"));
+    }
+
+    @Test
+    public void ignoresTasksFinishedWithoutStarting() {
+        process("taskFinished", 3);
+        process("taskStarted", 3);
+        assertEquals(1, metrics.getRunningTasks());
+        assertEquals(0, metrics.getFinishedTasks());
+    }
+
+    private void process(String event, int taskId) {
+        Message message = new Message();
+        message.event = event;
+        message.taskId = taskId;
+        metrics.messageProcessed(message, 0, 0);
+    }
+}
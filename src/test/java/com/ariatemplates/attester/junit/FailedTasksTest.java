@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FailedTasksTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void createFile() {
+        file = new File(folder.getRoot(), "failures/campaign.txt");
+    }
+
+    @Test
+    public void savesOneNamePerLine() throws Exception {
+        FailedTasks failedTasks = new FailedTasks(file);
+        failedTasks.load();
+        assertTrue(failedTasks.isEmpty());
+        failedTasks.taskFinished("test.Second", true);
+        failedTasks.taskFinished("test.First", true);
+        failedTasks.taskFinished("test.Passed", false);
+        failedTasks.save();
+        assertEquals(Arrays.asList("test.First", "test.Second"), Files.readAllLines(file.toPath(), UTF8));
+
+        FailedTasks loaded = new FailedTasks(file);
+        loaded.load();
+        assertEquals(new HashSet<String>(Arrays.asList("test.First", "test.Second")), loaded.getNames());
+    }
+
+    @Test
+    public void passingTasksAreRemoved() throws Exception {
+        FailedTasks failedTasks = new FailedTasks(file);
+        failedTasks.taskFinished("test.First", true);
+        failedTasks.save();
+        failedTasks.taskFinished("test.First", false);
+        failedTasks.save();
+        assertTrue(Files.readAllLines(file.toPath(), UTF8).isEmpty());
+        failedTasks.load();
+        assertTrue(failedTasks.isEmpty());
+    }
+
+    @Test
+    public void fileIsOnlyWrittenWhenModified() {
+        FailedTasks failedTasks = new FailedTasks(file);
+        failedTasks.taskFinished("test.Passed", false);
+        failedTasks.save();
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// The messages decoded by readMessage are compared with the ones decoded from a tree, as the runner used to do.
+public class JsonInputStreamTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String MESSAGES = "{\"event\":\"tasksList\",\"tasks\":[{\"name\":\"group\",\"subTasks\":["
+            + "{\"taskId\":0,\"name\":\"test.First\"},{\"taskId\":1,\"name\":\"test.Second\",\"other\":true}]}]}\n"
+            + "{\"time\":1350000000000,\"taskId\":0,\"event\":\"taskStarted\"}\n"
+            + "{\"event\":\"error\",\"taskId\":0,\"name\":\"ignored\",\"error\":{\"message\":\"Expected \\u00e9\\n\","
+            + "\"failure\":true,\"unknown\":[1,{}],\"stack\":[{\"className\":\"test.First\",\"function\":\"testA\","
+            + "\"file\":\"test/First.js\",\"line\":12},{\"function\":\"run\",\"line\":3}]}}\n"
+            + "{\"event\":\"taskFinished\",\"taskId\":0,\"error\":null}\n"
+            + "{\"event\":\"log\",\"taskId\":1,\"tasks\":[{\"name\":\"skipped\"}],"
+            + "\"error\":{\"message\":\"skipped\"}}\n"
+            + "{\"event\":\"taskIgnored\",\"taskId\":1}\n"
+            + "{\"event\":\"serverAttached\",\"phantomJS\":[\"phantomjs\",\"--load-images=false\"]}\n"
+            + "{\"event\":\"campaignFinished\"}\n";
+    private static final int MESSAGES_COUNT = 8;
+
+    private final ObjectMapper objectMapper = JsonInputStream.getObjectMapper();
+
+    @Test
+    public void decodesLikeTree() {
+        List<JsonNode> trees = readTrees(MESSAGES);
+        JsonInputStream messages = new JsonInputStream(new ByteArrayInputStream(MESSAGES.getBytes(UTF8)));
+        for (JsonNode tree : trees) {
+            assertDecodedLikeTree(tree, messages.readMessage());
+        }
+        assertNull(messages.readMessage());
+    }
+
+    @Test
+    public void decodesFromReader() {
+        List<JsonNode> trees = readTrees(MESSAGES);
+        JsonInputStream messages = new JsonInputStream(new StringReader(MESSAGES));
+        for (JsonNode tree : trees) {
+            assertDecodedLikeTree(tree, messages.readMessage());
+        }
+        assertNull(messages.readMessage());
+    }
+
+    @Test
+    public void skipsUnknownEvents() {
+        JsonInputStream messages = new JsonInputStream(new ByteArrayInputStream(MESSAGES.getBytes(UTF8)));
+        for (int i = 0; i < 4; i++) {
+            messages.readMessage();
+        }
+        Message message = messages.readMessage();
+        assertNull(message.event);
+        assertEquals("taskIgnored", messages.readMessage().event);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsValuesWhichAreNotObjects() {
+        new JsonInputStream(new ByteArrayInputStream("[1]".getBytes(UTF8))).readMessage();
+    }
+
+    // The handshake is read as JSON, and the bytes of the following messages are already in the buffer of the JSON
+    // parser when the encoding changes. Enough messages are written so that they do not fit in that buffer.
+    @Test
+    public void switchesEncodingWithBufferedBytes() throws IOException {
+        List<JsonNode> trees = new ArrayList<JsonNode>();
+        for (int i = 0; i < 200; i++) {
+            trees.addAll(readTrees(MESSAGES));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("{\"encoding\":\"smile\"}\n".getBytes(UTF8));
+        JsonGenerator generator = new SmileFactory().createJsonGenerator(out);
+        for (JsonNode tree : trees) {
+            objectMapper.writeTree(generator, tree);
+        }
+        generator.close();
+
+        JsonInputStream messages = new JsonInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("smile", messages.read().get("encoding").asText());
+        messages.switchEncoding(JsonInputStream.ENCODING_SMILE);
+        for (JsonNode tree : trees) {
+            assertDecodedLikeTree(tree, messages.readMessage());
+        }
+        assertNull(messages.readMessage());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotSwitchEncodingOfReader() {
+        new JsonInputStream(new StringReader(MESSAGES)).switchEncoding(JsonInputStream.ENCODING_SMILE);
+    }
+
+    private List<JsonNode> readTrees(String json) {
+        JsonInputStream trees = new JsonInputStream(new StringReader(json));
+        List<JsonNode> res = new ArrayList<JsonNode>();
+        for (int i = 0; i < MESSAGES_COUNT; i++) {
+            res.add(trees.read());
+        }
+        return res;
+    }
+
+    private void assertDecodedLikeTree(JsonNode tree, Message message) {
+        String event = tree.get("event").asText();
+        if (!Arrays.asList(Message.KNOWN_EVENTS).contains(event)) {
+            assertNull(message.event);
+            return;
+        }
+        assertEquals(event, message.event);
+        assertEquals(tree.has("taskId") ? tree.get("taskId").asInt() : Message.NO_TASK_ID, message.taskId);
+        assertSameValue(tree, "tasks", TaskNode[].class, message.tasks);
+        assertSameValue(tree, "error", TestError.class, message.error);
+        assertSameValue(tree, "phantomJS", String[].class, message.phantomJS);
+    }
+
+    // values are compared through their trees, as the decoded classes do not implement equals
+    private <T> void assertSameValue(JsonNode tree, String field, Class<T> type, T value) {
+        JsonNode expected = tree.get(field);
+        if (expected == null || expected.isNull()) {
+            assertNull(value);
+            return;
+        }
+        try {
+            T expectedValue = objectMapper.treeToValue(expected, type);
+            assertEquals(objectMapper.valueToTree(expectedValue), objectMapper.valueToTree(value));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
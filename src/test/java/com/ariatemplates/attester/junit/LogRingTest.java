@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class LogRingTest {
+    @Test
+    public void keepsTheLastLines() {
+        LogRing ring = new LogRing("attester", 3);
+        for (int i = 0; i < 5; i++) {
+            ring.add(i, "line" + i);
+        }
+        assertEquals(Arrays.asList("line2", "line3", "line4"), LogRing.getLastLines(Collections.singleton(ring), 0,
+                10));
+        assertEquals(Arrays.asList("line3", "line4"), LogRing.getLastLines(Collections.singleton(ring), 3, 10));
+    }
+
+    @Test
+    public void mergesRingsByTime() {
+        LogRing attester = new LogRing("attester", 10);
+        LogRing browser = new LogRing("browser", 10);
+        attester.add(1, "attester1");
+        browser.add(2, "browser2");
+        attester.add(3, "attester3");
+        browser.add(3, "browser3");
+        attester.add(4, "attester4");
+        assertEquals(Arrays.asList("attester1", "browser2", "attester3", "browser3", "attester4"), LogRing
+                .getLastLines(Arrays.asList(attester, browser), 0, 10));
+    }
+
+    @Test
+    public void countsTheLinesWhichAreNotGiven() {
+        LogRing ring = new LogRing("attester", 10);
+        for (int i = 0; i < 6; i++) {
+            ring.add(i, "line" + i);
+        }
+        assertEquals(Arrays.asList("... 4 earlier lines", "line4", "line5"), LogRing.getLastLines(Collections
+                .singleton(ring), 0, 2));
+    }
+}
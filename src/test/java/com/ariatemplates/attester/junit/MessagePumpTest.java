@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MessagePumpTest {
+    // tasksList, taskStarted and taskFinished for each task, campaignFinished
+    private static final int TASKS = 10;
+    private static final int MESSAGES = 2 * TASKS + 2;
+
+    @Test
+    public void blockedReaderKeepsTheQueueBounded() throws InterruptedException {
+        MessagePump pump = new MessagePump(new SyntheticEventSource(TASKS, 1, 0, 0), 5,
+                MessagePump.Backpressure.BLOCK);
+        pump.start();
+        waitForBlockedReader(pump);
+        assertEquals(5, pump.getQueueDepth());
+        assertEquals(5, pump.getReceivedMessages());
+
+        List<Message> messages = drainAll(pump);
+        assertEquals(MESSAGES, messages.size());
+        assertEquals("tasksList", messages.get(0).event);
+        assertEquals("campaignFinished", messages.get(MESSAGES - 1).event);
+        assertEquals(5, pump.getMaxQueueDepth());
+        assertEquals(0, pump.getOverflowCount());
+    }
+
+    @Test
+    public void overflowingReaderReadsEverything() throws InterruptedException {
+        MessagePump pump = new MessagePump(new SyntheticEventSource(TASKS, 1, 0, 0), 5,
+                MessagePump.Backpressure.OVERFLOW);
+        pump.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pump.getReceivedMessages() < MESSAGES) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The reader did not read all the messages.");
+            }
+            Thread.sleep(5);
+        }
+        assertEquals(MESSAGES, pump.getQueueDepth());
+        assertEquals(MESSAGES - 5, pump.getOverflowCount());
+        assertEquals(0, pump.getBlockedCount());
+        assertEquals(MESSAGES, drainAll(pump).size());
+    }
+
+    @Test
+    public void injectedMessagesDoNotWaitForRoom() throws InterruptedException {
+        MessagePump pump = new MessagePump(new SyntheticEventSource(TASKS, 1, 0, 0), 5,
+                MessagePump.Backpressure.BLOCK);
+        pump.start();
+        waitForBlockedReader(pump);
+        Message message = new Message();
+        message.event = "injected";
+        pump.inject(message);
+        assertEquals(6, pump.getQueueDepth());
+        List<Message> messages = drainAll(pump);
+        assertEquals(MESSAGES + 1, messages.size());
+        assertEquals("injected", messages.get(5).event);
+    }
+
+    @Test
+    public void readErrorIsGivenAfterTheMessagesRead() {
+        MessagePump pump = new MessagePump(new EventSource() {
+            private int messages = 0;
+
+            @Override
+            public Message readMessage() {
+                if (messages == 2) {
+                    throw new IllegalArgumentException("broken pipe");
+                }
+                messages++;
+                Message message = new Message();
+                message.event = "taskStarted";
+                return message;
+            }
+
+            @Override
+            public void stop() {
+            }
+        }, 5, MessagePump.Backpressure.BLOCK);
+        pump.start();
+        List<Message> messages = new ArrayList<Message>();
+        try {
+            while (true) {
+                pump.drainTo(messages, 1);
+            }
+        } catch (IllegalArgumentException e) {
+            assertEquals("broken pipe", e.getMessage());
+        }
+        assertEquals(2, messages.size());
+    }
+
+    private static void waitForBlockedReader(MessagePump pump) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pump.getBlockedCount() == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The reader was not blocked by the full queue.");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    // until campaignFinished, after which there is no more message to read
+    private static List<Message> drainAll(MessagePump pump) {
+        List<Message> res = new ArrayList<Message>();
+        while (res.isEmpty() || !"campaignFinished".equals(res.get(res.size() - 1).event)) {
+            pump.drainTo(res, 3);
+        }
+        try {
+            pump.drainTo(res, 3);
+            fail("A message was read after campaignFinished.");
+        } catch (IllegalStateException e) {
+            assertTrue(res.size() >= MESSAGES);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.rules.ExternalResource;
+
+// Java system properties set by a test, given back their previous values after it.
+public class SystemProperties extends ExternalResource {
+    private final Map<String, String> savedValues = new LinkedHashMap<String, String>();
+
+    public void set(String name, String value) {
+        if (!savedValues.containsKey(name)) {
+            savedValues.put(name, System.getProperty(name));
+        }
+        if (value == null) {
+            System.clearProperty(name);
+        } else {
+            System.setProperty(name, value);
+        }
+    }
+
+    @Override
+    protected void after() {
+        for (Map.Entry<String, String> property : savedValues.entrySet()) {
+            if (property.getValue() == null) {
+                System.clearProperty(property.getKey());
+            } else {
+                System.setProperty(property.getKey(), property.getValue());
+            }
+        }
+        savedValues.clear();
+    }
+}
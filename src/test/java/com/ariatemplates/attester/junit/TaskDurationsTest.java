@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TaskDurationsTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void createFile() {
+        file = new File(folder.getRoot(), "durations/durations.txt");
+    }
+
+    @Test
+    public void savesOneLinePerRun() throws Exception {
+        TaskDurations durations = new TaskDurations(file);
+        durations.record("test.First", 100);
+        durations.record("test with\ttab", 10);
+        durations.save();
+        assertEquals(Arrays.asList("test.First\t100", "test with\ttab\t10"), Files.readAllLines(file.toPath(), UTF8));
+
+        TaskDurations loaded = new TaskDurations(file);
+        loaded.load();
+        assertEquals(100, loaded.get("test.First"));
+        assertEquals(10, loaded.get("test with\ttab"));
+        assertEquals(-1, loaded.get("test.Unknown"));
+    }
+
+    @Test
+    public void recentRunsHaveMoreWeight() {
+        TaskDurations durations = new TaskDurations(file);
+        durations.record("test.First", 100);
+        durations.save();
+        TaskDurations other = new TaskDurations(file);
+        other.record("test.First", 300);
+        other.save();
+        durations.load();
+        assertEquals(200, durations.get("test.First"));
+    }
+
+    @Test
+    public void ignoresIncompleteLines() throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), "test.First\t100\ntest.Second\tabc\ntest.Third\t2".getBytes(UTF8));
+        TaskDurations durations = new TaskDurations(file);
+        durations.load();
+        assertEquals(100, durations.get("test.First"));
+        assertEquals(-1, durations.get("test.Second"));
+        assertEquals(-1, durations.get("test.Third"));
+    }
+
+    @Test
+    public void concurrentSavesKeepAllLines() throws Exception {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final int index = i;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        TaskDurations durations = new TaskDurations(file);
+                        durations.record("test" + index + "." + j, j);
+                        durations.save();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        TaskDurations durations = new TaskDurations(file);
+        durations.load();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 20; j++) {
+                assertEquals(j, durations.get("test" + i + "." + j));
+            }
+        }
+    }
+}
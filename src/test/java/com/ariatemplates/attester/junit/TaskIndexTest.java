@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+
+public class TaskIndexTest {
+    private final Description first = Description.createSuiteDescription("test.First");
+    private final Description second = Description.createSuiteDescription("test.Second");
+
+    @Test
+    public void growsWithTaskIds() {
+        TaskIndex index = new TaskIndex();
+        assertTrue(index.isEmpty());
+        assertNull(index.put(1000, first));
+        assertNull(index.put(3, second));
+        assertEquals(2, index.size());
+        assertSame(first, index.get(1000));
+        assertNull(index.get(4));
+        assertNull(index.get(-1));
+        assertNull(index.get(5000));
+        assertArrayEquals(new int[] { 3, 1000 }, index.getTaskIds());
+        assertSame(second, index.remove(3));
+        assertNull(index.remove(3));
+        assertArrayEquals(new int[] { 1000 }, index.getTaskIds());
+    }
+
+    @Test
+    public void followsTheStatesOfTasks() {
+        TaskIndex index = new TaskIndex();
+        index.put(0, first);
+        assertEquals(TaskIndex.State.PENDING, index.getState(0));
+        assertEquals(-1, index.getStartTime(0));
+        assertTrue(index.taskStarted(0, 42));
+        assertEquals(42, index.getStartTime(0));
+        assertTrue(index.taskFailed(0));
+        assertTrue(index.isFailed(0));
+        assertTrue(index.taskFinished(0));
+        assertTrue(index.isFinished(0));
+        assertEquals(-1, index.getStartTime(0));
+    }
+
+    @Test
+    public void detectsUnexpectedEvents() {
+        TaskIndex index = new TaskIndex();
+        index.put(0, first);
+        index.put(1, second);
+        assertFalse(index.taskFinished(0));
+        assertFalse(index.taskStarted(0, 1));
+        assertTrue(index.taskIgnored(1));
+        assertFalse(index.taskIgnored(1));
+        assertFalse(index.taskFailed(1));
+        assertFalse(index.taskStarted(2, 1));
+        assertFalse(index.taskFinished(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeTaskIds() {
+        new TaskIndex().put(-1, first);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// The XML report must be well-formed after each test, so that it can be read while the campaign runs or after it
+// is killed.
+public class TaskReportTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // characters which must be escaped, and a control character which is not allowed in XML
+    private static final String SPECIAL_CHARS = "<&>\"\t\u0001\u00e9";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File xmlFile;
+    private File ndjsonFile;
+    private TaskReport report;
+
+    @Before
+    public void createReport() {
+        xmlFile = new File(folder.getRoot(), "reports/TEST-campaign.xml");
+        ndjsonFile = new File(folder.getRoot(), "reports/campaign.ndjson");
+        report = new TaskReport("campaign " + SPECIAL_CHARS, xmlFile, ndjsonFile);
+    }
+
+    @Test
+    public void reportsAreWellFormedAfterEachTest() throws Exception {
+        report.open();
+        assertEquals(0, readTestCases(readXml()));
+
+        Description passed = Description.createSuiteDescription("test.Passed");
+        report.testFinished(passed, 1500);
+        assertEquals(1, readTestCases(readXml()));
+
+        Description failed = Description.createSuiteDescription("test.Failed " + SPECIAL_CHARS);
+        report.testFailure(failed, new AssertionError("Expected " + SPECIAL_CHARS + "\nsecond line"));
+        report.testFailure(failed, new IllegalStateException("Unexpected " + SPECIAL_CHARS));
+        assertEquals(1, readTestCases(readXml()));
+        report.testFinished(failed, -1);
+        assertEquals(2, readTestCases(readXml()));
+
+        report.testIgnored(Description.createSuiteDescription("test.Ignored"));
+        assertEquals(3, readTestCases(readXml()));
+
+        report.close();
+        Element testSuite = readXml().getDocumentElement();
+        assertEquals("campaign <&>\"\t?\u00e9", testSuite.getAttribute("name"));
+        assertEquals("3", testSuite.getAttribute("tests"));
+        assertEquals("1", testSuite.getAttribute("failures"));
+        assertEquals("1", testSuite.getAttribute("errors"));
+        assertEquals("1", testSuite.getAttribute("skipped"));
+        Element failedTest = (Element) testSuite.getElementsByTagName("testcase").item(1);
+        assertEquals("test.Failed <&>\"\t?\u00e9", failedTest.getAttribute("name"));
+        assertEquals("Expected <&>\"\t?\u00e9", ((Element) failedTest.getElementsByTagName("failure").item(0))
+                .getAttribute("message"));
+        assertEquals(1, failedTest.getElementsByTagName("error").getLength());
+    }
+
+    @Test
+    public void ndjsonReportHasOneObjectPerLine() throws IOException {
+        report.open();
+        Description failed = Description.createSuiteDescription("test.Failed " + SPECIAL_CHARS);
+        report.testFailure(failed, new AssertionError("Expected\nsecond line"));
+        report.testFinished(failed, 20);
+        report.testFinished(Description.createSuiteDescription("test.Passed"), 10);
+        report.testIgnored(Description.createSuiteDescription("test.Ignored"));
+
+        List<String> lines = Files.readAllLines(ndjsonFile.toPath(), UTF8);
+        assertEquals(3, lines.size());
+        JsonNode failedLine = readJson(lines.get(0));
+        assertEquals("campaign " + SPECIAL_CHARS, failedLine.get("suite").asText());
+        assertEquals("test.Failed " + SPECIAL_CHARS, failedLine.get("name").asText());
+        assertEquals("failed", failedLine.get("status").asText());
+        assertEquals(20, failedLine.get("time").asLong());
+        assertEquals("Expected", failedLine.get("failures").get(0).get("message").asText());
+        assertEquals(true, failedLine.get("failures").get(0).get("failure").asBoolean());
+        assertEquals("passed", readJson(lines.get(1)).get("status").asText());
+        assertEquals("ignored", readJson(lines.get(2)).get("status").asText());
+        report.close();
+    }
+
+    // the stacks of the errors of attester are only converted when they are printed
+    @Test
+    public void stackIsPrintedOnceWhenTheTestIsWritten() throws IOException {
+        report.open();
+        Description failed = Description.createSuiteDescription("test.Failed");
+        final int[] printed = { 0 };
+        report.testFailure(failed, new AssertionError("Expected") {
+            @Override
+            public void printStackTrace(PrintWriter s) {
+                printed[0]++;
+                s.print("lazy stack");
+            }
+        });
+        assertEquals(0, printed[0]);
+        report.testFinished(failed, 20);
+        assertEquals(1, printed[0]);
+        report.close();
+        assertEquals("lazy stack", readJson(Files.readAllLines(ndjsonFile.toPath(), UTF8).get(0)).get("failures")
+                .get(0).get("stack").asText());
+    }
+
+    @Test
+    public void reportsAreRewrittenWhenOpenedAgain() throws Exception {
+        report.open();
+        report.testFinished(Description.createSuiteDescription("test.First"), 1);
+        report.close();
+        report.open();
+        report.close();
+        assertEquals(0, readTestCases(readXml()));
+        assertEquals(0, Files.readAllLines(ndjsonFile.toPath(), UTF8).size());
+    }
+
+    private Document readXml() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xmlFile);
+    }
+
+    private static int readTestCases(Document document) {
+        return document.getDocumentElement().getElementsByTagName("testcase").getLength();
+    }
+
+    private static JsonNode readJson(String line) {
+        return new JsonInputStream(new StringReader(line)).read();
+    }
+}
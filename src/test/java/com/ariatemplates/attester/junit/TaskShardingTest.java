@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+
+public class TaskShardingTest {
+    private static final int TESTS = 103;
+
+    @Test
+    public void shardsAreDisjointAndCoverAllTests() {
+        checkShards(createTests(TESTS), null);
+    }
+
+    @Test
+    public void shardsByDurationsAreDisjointAndCoverAllTests() {
+        List<Description> tests = createTests(TESTS);
+        Random random = new Random(0);
+        TaskDurations durations = new TaskDurations(new File("unused"));
+        // some tests never ran
+        for (int i = 0; i < TESTS; i += 2) {
+            durations.record(tests.get(i).getDisplayName(), random.nextInt(1000));
+        }
+        checkShards(tests, durations);
+    }
+
+    @Test
+    public void shardsDoNotDependOnTheOrderOfTests() {
+        List<Description> tests = createTests(TESTS);
+        List<Description> shuffledTests = new ArrayList<Description>(tests);
+        Collections.shuffle(shuffledTests, new Random(0));
+        for (int index = 0; index < 3; index++) {
+            TaskSharding sharding = new TaskSharding(index, 3);
+            assertEquals(getNames(sharding.selectTests(tests, null)), getNames(sharding.selectTests(shuffledTests,
+                    null)));
+        }
+    }
+
+    @Test
+    public void longTestsAreBalancedWithTheOthers() {
+        List<Description> tests = createTests(11);
+        TaskDurations durations = new TaskDurations(new File("unused"));
+        durations.record(tests.get(5).getDisplayName(), 100);
+        for (int i = 0; i < tests.size(); i++) {
+            if (i != 5) {
+                durations.record(tests.get(i).getDisplayName(), 1);
+            }
+        }
+        TaskSharding sharding = new TaskSharding(0, 2);
+        sharding.setByDurations(true);
+        assertEquals(Collections.singleton(tests.get(5).getDisplayName()), getNames(sharding.selectTests(tests,
+                durations)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIndexOutOfRange() {
+        new TaskSharding(2, 2);
+    }
+
+    private void checkShards(List<Description> tests, TaskDurations durations) {
+        for (int count = 1; count <= 5; count++) {
+            Set<Description> allSelected = Collections.newSetFromMap(new IdentityHashMap<Description, Boolean>());
+            int selectedCount = 0;
+            for (int index = 0; index < count; index++) {
+                TaskSharding sharding = new TaskSharding(index, count);
+                sharding.setByDurations(durations != null);
+                Set<Description> selected = sharding.selectTests(tests, durations);
+                assertTrue(tests.containsAll(selected));
+                selectedCount += selected.size();
+                allSelected.addAll(selected);
+            }
+            assertEquals("shards of " + count + " are not disjoint", selectedCount, allSelected.size());
+            assertEquals("shards of " + count + " do not cover all tests", tests.size(), allSelected.size());
+        }
+    }
+
+    private static List<Description> createTests(int count) {
+        List<Description> res = new ArrayList<Description>();
+        for (int i = 0; i < count; i++) {
+            res.add(Description.createSuiteDescription("test.module" + (i % 7) + ".Test" + i));
+        }
+        return res;
+    }
+
+    private static Set<String> getNames(Set<Description> tests) {
+        Set<String> res = new HashSet<String>();
+        for (Description test : tests) {
+            res.add(test.getDisplayName());
+        }
+        return res;
+    }
+}
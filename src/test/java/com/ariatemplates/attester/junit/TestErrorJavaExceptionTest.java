@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestErrorJavaExceptionTest {
+    @Rule
+    public SystemProperties sysProperties = new SystemProperties();
+
+    @Test
+    public void convertsTheStackOfTheError() {
+        Throwable exception = TestErrorJavaException.createFromTestFailure(createError("test.Sample", 3, true));
+        assertTrue(exception instanceof AssertionError);
+        StackTraceElement[] stack = exception.getStackTrace();
+        assertEquals(3, stack.length);
+        assertEquals("test.Sample", stack[0].getClassName());
+        assertEquals("method2", stack[2].getMethodName());
+        assertEquals("test/Sample.js", stack[2].getFileName());
+        assertEquals(12, stack[2].getLineNumber());
+        assertFalse(TestErrorJavaException.createFromTestFailure(createError("test.Sample", 3, false)) instanceof
+                AssertionError);
+    }
+
+    @Test
+    public void identicalStacksShareTheirFrames() {
+        StackTraceElement[] first = TestErrorJavaException.createFromTestFailure(createError("test.Shared", 3, true))
+                .getStackTrace();
+        StackTraceElement[] second = TestErrorJavaException.createFromTestFailure(
+                createError("test.Shared", 3, false)).getStackTrace();
+        for (int i = 0; i < first.length; i++) {
+            assertSame(first[i], second[i]);
+        }
+    }
+
+    @Test
+    public void omittedFramesArePrinted() {
+        sysProperties.set(TestErrorJavaException.MAX_STACK_DEPTH_SYS_PROPERTY, "2");
+        Throwable exception = TestErrorJavaException.createFromTestFailure(createError("test.Deep", 5, true));
+        String printed = printStackTrace(exception);
+        assertEquals(2, exception.getStackTrace().length);
+        assertTrue(printed.contains("test.Deep.method1"));
+        assertFalse(printed.contains("test.Deep.method2"));
+        assertTrue(printed.contains("... 3 more"));
+    }
+
+    @Test
+    public void outputIsAddedToTheMessage() {
+        Throwable exception = TestErrorJavaException.createFromTestFailure(createError("test.Sample", 1, true),
+                Arrays.asList("[browser-1] first line", "[browser-1] second line"));
+        assertTrue(exception.toString().startsWith("Failure in test.Sample\n"));
+        assertTrue(exception.toString().endsWith("\n[browser-1] first line\n[browser-1] second line"));
+        assertEquals("Failure in test.Sample", TestErrorJavaException.createFromTestFailure(
+                createError("test.Sample", 1, true), Arrays.<String> asList()).toString());
+    }
+
+    @Test
+    public void givenStackReplacesTheStackOfTheError() {
+        Throwable exception = TestErrorJavaException.createFromTestFailure(createError("test.Sample", 3, true));
+        StackTraceElement[] stack = { new StackTraceElement("test.Other", "run", "Other.java", 1) };
+        exception.setStackTrace(stack);
+        assertEquals(Arrays.asList(stack), Arrays.asList(exception.getStackTrace()));
+    }
+
+    private static TestError createError(String className, int depth, boolean failure) {
+        TestError error = new TestError();
+        error.message = "Failure in " + className;
+        error.failure = failure;
+        error.stack = new TestErrorStackElement[depth];
+        for (int i = 0; i < depth; i++) {
+            error.stack[i] = new TestErrorStackElement();
+            error.stack[i].className = className;
+            error.stack[i].function = "method" + i;
+            error.stack[i].file = className.replace('.', '/') + ".js";
+            error.stack[i].line = 10 + i;
+        }
+        return error;
+    }
+
+    private static String printStackTrace(Throwable exception) {
+        StringWriter res = new StringWriter();
+        PrintWriter writer = new PrintWriter(res);
+        exception.printStackTrace(writer);
+        writer.close();
+        return res.toString();
+    }
+}
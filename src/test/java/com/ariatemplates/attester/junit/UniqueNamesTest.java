@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 Amadeus s.a.s.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariatemplates.attester.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class UniqueNamesTest {
+    @Test
+    public void duplicatesGetASuffix() {
+        UniqueNames names = new UniqueNames();
+        assertEquals("test.Sample", names.create("test.Sample"));
+        assertEquals("test.Sample2", names.create("test.Sample"));
+        assertEquals("test.Sample3", names.create("test.Sample"));
+        assertEquals("test.Other", names.create("test.Other"));
+    }
+
+    @Test
+    public void suffixesSkipNamesAlreadyGiven() {
+        UniqueNames names = new UniqueNames();
+        assertEquals("test.Sample2", names.create("test.Sample2"));
+        assertEquals("test.Sample", names.create("test.Sample"));
+        assertEquals("test.Sample3", names.create("test.Sample"));
+        assertEquals("test.Sample22", names.create("test.Sample2"));
+    }
+
+    @Test
+    public void manyDuplicatesAreAllUnique() {
+        UniqueNames names = new UniqueNames();
+        Set<String> created = new HashSet<String>();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(created.add(names.create(i % 2 == 0 ? "test.Sample" : "test.Sample1")));
+        }
+    }
+}